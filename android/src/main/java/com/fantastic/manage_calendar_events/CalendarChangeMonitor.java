@@ -0,0 +1,96 @@
+package com.fantastic.manage_calendar_events;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.provider.CalendarContract;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks changes made to the calendar provider by anyone (this app, other apps or sync adapters).
+ *
+ * The provider notifies on its authority root for every table, so a single observer on
+ * {@link CalendarContract#CONTENT_URI} covers calendars, events, reminders and attendees.
+ * Caches record the generation they were loaded at and are stale once it moves on.
+ */
+class CalendarChangeMonitor {
+
+    interface Listener {
+        /**
+         * Called on a binder thread, once per provider notification.
+         */
+        void onCalendarChanged();
+    }
+
+    private final Context ctx;
+    private final AtomicLong generation = new AtomicLong();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ContentObserver observer = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            generation.incrementAndGet();
+            for (Listener listener : listeners) {
+                listener.onCalendarChanged();
+            }
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onChange(selfChange);
+        }
+    };
+
+    private boolean registered;
+
+    CalendarChangeMonitor(Context ctx) {
+        this.ctx = ctx;
+    }
+
+    /**
+     * Starts observing the provider. Safe to call more than once.
+     */
+    synchronized void start() {
+        if (registered) {
+            return;
+        }
+        ctx.getContentResolver()
+                .registerContentObserver(CalendarContract.CONTENT_URI, true, observer);
+        registered = true;
+    }
+
+    synchronized void stop() {
+        if (!registered) {
+            return;
+        }
+        ctx.getContentResolver().unregisterContentObserver(observer);
+        registered = false;
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Moves the generation on right after a write of this process. The provider's notification
+     * only arrives later and asynchronously, in the meantime a read issued after the write
+     * could otherwise join a flight or be served a prefetch from before it.
+     */
+    void markChanged() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Returns the current generation. It only changes while the monitor is started, or on
+     * {@link #markChanged}.
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+}
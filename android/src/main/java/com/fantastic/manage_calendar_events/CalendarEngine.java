@@ -0,0 +1,77 @@
+package com.fantastic.manage_calendar_events;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide state shared by every plugin instance: the calendar operations with their
+ * caches and change monitor, the worker pools and the prefetched windows.
+ *
+ * Each Flutter engine attaching the plugin holds one reference, see {@link #acquire(Context)}.
+ * Everything is shut down when the last engine releases it, and rebuilt by the next acquire.
+ */
+final class CalendarEngine {
+
+    private static final int READ_THREADS = 2;
+
+    private static final Object lock = new Object();
+    // Guarded by lock.
+    private static CalendarEngine instance;
+    private static int references;
+
+    final Handler mainHandler = new Handler(Looper.getMainLooper());
+    final ExecutorService readExecutor = Executors.newFixedThreadPool(READ_THREADS);
+    final ExecutorService bulkExecutor = Executors.newSingleThreadExecutor();
+    // Deferred event updates, written one at a time in the order they were flushed, and the
+    // direct writes of existing events, which have to land after them.
+    final ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+    final RangePrefetcher prefetcher = new RangePrefetcher();
+    final CalendarOperations operations;
+    final Context context;
+
+    private CalendarEngine(Context context) {
+        this.context = context;
+        this.operations = new CalendarOperations(null, context);
+        operations.addChangeListener(prefetcher);
+    }
+
+    /**
+     * Returns the shared engine, creating it if needed. Every call has to be balanced by a
+     * {@link #release()}.
+     */
+    static CalendarEngine acquire(Context context) {
+        synchronized (lock) {
+            if (instance == null) {
+                instance = new CalendarEngine(context.getApplicationContext());
+            }
+            references++;
+            return instance;
+        }
+    }
+
+    /**
+     * Drops a reference, shutting the engine down when it was the last one.
+     */
+    void release() {
+        synchronized (lock) {
+            if (instance != this || references == 0) {
+                return;
+            }
+            if (--references > 0) {
+                return;
+            }
+            instance = null;
+        }
+        Log.d("DART/NATIVE", "Shutting down the calendar engine");
+        prefetcher.shutdown();
+        readExecutor.shutdown();
+        bulkExecutor.shutdown();
+        writeExecutor.shutdown();
+        operations.dispose();
+    }
+}
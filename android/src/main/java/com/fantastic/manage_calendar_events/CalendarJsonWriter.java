@@ -0,0 +1,188 @@
+package com.fantastic.manage_calendar_events;
+
+import com.fantastic.manage_calendar_events.models.Alarm;
+import com.fantastic.manage_calendar_events.models.Calendar;
+import com.fantastic.manage_calendar_events.models.CalendarEvent;
+import com.fantastic.manage_calendar_events.models.CalendarEvent.Attendee;
+import com.fantastic.manage_calendar_events.models.CalendarEvent.Reminder;
+import com.fantastic.manage_calendar_events.models.CalendarEventRange;
+import com.fantastic.manage_calendar_events.models.EventSeries;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Hand-written JSON adapters for the models sent over the method channel. They produce the same
+ * documents as Gson does from the {@code @SerializedName} fields, without reflection, and can be
+ * fed straight from a cursor so large reads don't need an intermediate object graph.
+ */
+final class CalendarJsonWriter {
+
+    interface Body {
+        void write(JsonWriter out) throws IOException;
+    }
+
+    private CalendarJsonWriter() {
+    }
+
+    /**
+     * Runs the given body against a fresh writer and returns the document it wrote.
+     */
+    static String write(Body body) {
+        StringWriter buffer = new StringWriter();
+        JsonWriter out = new JsonWriter(buffer);
+        // As Gson's defaults: null fields left out, HTML characters escaped.
+        out.setSerializeNulls(false);
+        out.setHtmlSafe(true);
+        try {
+            body.write(out);
+            out.flush();
+        } catch (IOException e) {
+            // StringWriter never throws, only a malformed document ends up here.
+            throw new IllegalStateException(e);
+        }
+        return buffer.toString();
+    }
+
+    static String calendars(final List<Calendar> calendars) {
+        return write(out -> {
+            out.beginArray();
+            for (Calendar calendar : calendars) {
+                writeCalendar(out, calendar);
+            }
+            out.endArray();
+        });
+    }
+
+    static String events(final List<CalendarEvent> events) {
+        return write(out -> writeEvents(out, events));
+    }
+
+    static String eventRange(final CalendarEventRange range) {
+        return write(out -> {
+            out.beginObject();
+            out.name("events");
+            writeEvents(out, range.getEvents());
+            out.name("series").beginArray();
+            for (EventSeries series : range.getSeries()) {
+                writeSeries(out, series);
+            }
+            out.endArray();
+            out.endObject();
+        });
+    }
+
+    static String attendees(final List<Attendee> attendees) {
+        return write(out -> writeAttendees(out, attendees));
+    }
+
+    static String alarms(final List<Alarm> alarms) {
+        return write(out -> {
+            out.beginArray();
+            for (Alarm alarm : alarms) {
+                out.beginObject();
+                out.name("eventId").value(alarm.getEventId());
+                out.name("title").value(alarm.getTitle());
+                out.name("begin").value(alarm.getBegin());
+                out.name("end").value(alarm.getEnd());
+                out.name("minutes").value(alarm.getMinutes());
+                out.name("alarmTime").value(alarm.getAlarmTime());
+                out.endObject();
+            }
+            out.endArray();
+        });
+    }
+
+    static void writeCalendar(JsonWriter out, Calendar calendar) throws IOException {
+        out.beginObject();
+        out.name("id").value(calendar.getId());
+        out.name("name").value(calendar.getName());
+        out.name("accountName").value(calendar.getAccountName());
+        out.name("ownerName").value(calendar.getOwnerName());
+        out.name("isReadOnly").value(calendar.isReadOnly());
+        out.name("color").value(calendar.getColor());
+        out.name("isVisible").value(calendar.isVisible());
+        out.name("isSyncEnabled").value(calendar.isSyncEnabled());
+        out.name("timeZone").value(calendar.getTimeZone());
+        out.endObject();
+    }
+
+    static void writeEvents(JsonWriter out, List<CalendarEvent> events) throws IOException {
+        out.beginArray();
+        for (CalendarEvent event : events) {
+            writeEvent(out, event);
+        }
+        out.endArray();
+    }
+
+    static void writeEvent(JsonWriter out, CalendarEvent event) throws IOException {
+        writeEvent(out, event.getEventId(), event.getTitle(), event.getDescription(),
+                event.getStartDate(), event.getEndDate(), event.getLocation(), event.getUrl(),
+                event.getDuration(), event.isAllDay(), event.isHasAlarm(), event.getReminder(),
+                event.getAttendees(), event.isEnrichmentIncomplete());
+    }
+
+    /**
+     * @param enrichmentIncomplete - The reminder and attendees couldn't be loaded in time
+     */
+    static void writeEvent(JsonWriter out, String eventId, String title, String description,
+                           long startDate, long endDate, String location, String url,
+                           long duration, boolean isAllDay, boolean hasAlarm, Reminder reminder,
+                           List<Attendee> attendees, boolean enrichmentIncomplete)
+            throws IOException {
+        out.beginObject();
+        out.name("eventId").value(eventId);
+        out.name("title").value(title);
+        out.name("description").value(description);
+        out.name("startDate").value(startDate);
+        out.name("endDate").value(endDate);
+        out.name("location").value(location);
+        out.name("url").value(url);
+        out.name("duration").value(duration);
+        out.name("isAllDay").value(isAllDay);
+        out.name("hasAlarm").value(hasAlarm);
+        if (reminder != null) {
+            out.name("reminder").beginObject();
+            out.name("minutes").value(reminder.getMinutes());
+            out.endObject();
+        }
+        if (attendees != null) {
+            out.name("attendees");
+            writeAttendees(out, attendees);
+        }
+        out.name("enrichmentIncomplete").value(enrichmentIncomplete);
+        out.endObject();
+    }
+
+    static void writeSeries(JsonWriter out, EventSeries series) throws IOException {
+        out.beginObject();
+        out.name("event");
+        writeEvent(out, series.getEvent());
+        out.name("begins").beginArray();
+        for (int i = 0; i < series.size(); i++) {
+            out.value(series.getBegin(i));
+        }
+        out.endArray();
+        out.name("ends").beginArray();
+        for (int i = 0; i < series.size(); i++) {
+            out.value(series.getEnd(i));
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    static void writeAttendees(JsonWriter out, List<Attendee> attendees) throws IOException {
+        out.beginArray();
+        for (Attendee attendee : attendees) {
+            out.beginObject();
+            out.name("id").value(attendee.getId());
+            out.name("name").value(attendee.getName());
+            out.name("emailAddress").value(attendee.getEmailAddress());
+            out.name("isOrganiser").value(attendee.isOrganiser());
+            out.endObject();
+        }
+        out.endArray();
+    }
+}
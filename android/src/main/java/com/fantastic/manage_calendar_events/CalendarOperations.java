@@ -2,7 +2,6 @@ package com.fantastic.manage_calendar_events;
 
 import android.Manifest.permission;
 import android.app.Activity;
-import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.pm.PackageManager;
@@ -10,26 +9,45 @@ import android.content.ContentUris;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.Process;
 import android.provider.CalendarContract;
 import android.provider.CalendarContract.Calendars;
 import android.provider.CalendarContract.Events;
 import android.provider.CalendarContract.Instances;
+import android.provider.CalendarContract.Reminders;
 import android.util.Log;
 
+import com.fantastic.manage_calendar_events.models.Alarm;
 import com.fantastic.manage_calendar_events.models.Calendar;
 import com.fantastic.manage_calendar_events.models.CalendarEvent;
 import com.fantastic.manage_calendar_events.models.CalendarEvent.Reminder;
+import com.fantastic.manage_calendar_events.models.CalendarEventRange;
+import com.fantastic.manage_calendar_events.models.EventSeries;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.Date;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
@@ -58,18 +76,123 @@ public class CalendarOperations {
                     Events.RRULE,
             };
 
+    private static final int ENRICHMENT_THREADS =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final long ENRICHMENT_TIMEOUT_MS = 5000;
+    // Added to the deadline for every task a pool thread has to run in turn.
+    private static final long ENRICHMENT_TASK_MS = 50;
+    private static final int PARTITION_THREADS =
+            Math.max(2, Runtime.getRuntime().availableProcessors());
+    // Shorter sub-ranges would cost more in per-query overhead than they save.
+    private static final long MIN_PARTITION_MS = TimeUnit.DAYS.toMillis(30);
+    // Instances whose reminders are looked up with one Reminders query.
+    private static final int ALARM_PAGE_SIZE = 50;
+    // Most an all-day instance moves when its UTC date is taken as a local date.
+    private static final long ALL_DAY_SHIFT_MS = TimeUnit.DAYS.toMillis(1);
+    // Reminder methods which fire on the device.
+    private static final String ALARM_METHODS = Reminders.METHOD + " IN ("
+            + Reminders.METHOD_DEFAULT + "," + Reminders.METHOD_ALERT + ","
+            + Reminders.METHOD_ALARM + ")";
+
     private Context ctx;
-    private Activity activity;
+    private volatile Activity activity;
+
+    private final ExecutorService enrichmentExecutor =
+            Executors.newFixedThreadPool(ENRICHMENT_THREADS);
+    // Enriches the reads which ask for it (prefetches), which thus never queue ahead of a
+    // foreground read on the shared pool and eat into its deadline.
+    private final ExecutorService backgroundEnrichmentExecutor =
+            Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                    runnable.run();
+                }, "calendar-background-enrichment");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+    private final ForkJoinPool partitionPool = new ForkJoinPool(PARTITION_THREADS);
+    // Windows at least this long are read in parallel sub-ranges, 0 (the default) to never
+    // do so.
+    private volatile long parallelThresholdMs;
+
+    private final CalendarChangeMonitor changeMonitor;
 
-    private ExecutorService executor = Executors.newSingleThreadExecutor();
+    // Revoking a runtime permission kills the process, so once granted it stays granted.
+    private volatile boolean permissionsGranted;
+
+    private volatile List<Calendar> cachedCalendars;
+    private volatile long cachedCalendarsGeneration;
 
     public CalendarOperations(Activity activity, Context ctx) {
         this.activity = activity; this.ctx = ctx;
+        this.changeMonitor = new CalendarChangeMonitor(ctx);
+    }
+
+    /**
+     * Sets the activity permission requests are started from; the operations outlive it.
+     */
+    void attachActivity(Activity activity) {
+        this.activity = activity;
+    }
+
+    /**
+     * Forgets the activity unless another one was attached in the meantime.
+     */
+    void detachActivity(Activity activity) {
+        if (this.activity == activity) {
+            this.activity = null;
+        }
+    }
+
+    /**
+     * Stops observing the provider and releases the worker threads.
+     */
+    void dispose() {
+        changeMonitor.stop();
+        enrichmentExecutor.shutdown();
+        backgroundEnrichmentExecutor.shutdown();
+        partitionPool.shutdown();
+        cachedCalendars = null;
+    }
+
+    /**
+     * Returns the current provider change generation; it moves on whenever anything in the
+     * calendar provider changes. See {@link CalendarChangeMonitor}.
+     */
+    long getChangeGeneration() {
+        changeMonitor.start();
+        return changeMonitor.getGeneration();
+    }
+
+    /**
+     * Moves the change generation on after a write of this plugin which didn't go through
+     * this class, see {@link CalendarChangeMonitor#markChanged}.
+     */
+    void markChanged() {
+        changeMonitor.markChanged();
+    }
+
+    /**
+     * Registers a listener for any change in the calendar provider.
+     */
+    void addChangeListener(CalendarChangeMonitor.Listener listener) {
+        changeMonitor.start();
+        changeMonitor.addListener(listener);
     }
 
+    void removeChangeListener(CalendarChangeMonitor.Listener listener) {
+        changeMonitor.removeListener(listener);
+    }
 
+    /**
+     * Checks the permissions against the application context, so it also answers correctly
+     * when no activity is attached (background isolates).
+     */
     boolean hasPermissions() {
-        if (23 <= android.os.Build.VERSION.SDK_INT && activity != null) {
+        if (permissionsGranted) {
+            return true;
+        }
+        if (23 <= android.os.Build.VERSION.SDK_INT) {
             boolean writeCalendarPermissionGranted =
                     ctx.checkSelfPermission(permission.WRITE_CALENDAR)
                             == PackageManager.PERMISSION_GRANTED;
@@ -77,187 +200,1072 @@ public class CalendarOperations {
                     ctx.checkSelfPermission(permission.READ_CALENDAR)
                             == PackageManager.PERMISSION_GRANTED;
 
-            return writeCalendarPermissionGranted && readCalendarPermissionGranted;
+            permissionsGranted = writeCalendarPermissionGranted && readCalendarPermissionGranted;
+            return permissionsGranted;
+        }
+
+        return true;
+    }
+
+    /**
+     * Asks the user for the calendar permissions.
+     *
+     * @return false if they are missing and there is no activity to ask from
+     */
+    boolean requestPermissions() {
+        if (23 <= android.os.Build.VERSION.SDK_INT) {
+            final Activity target = activity;
+            if (target == null) {
+                return hasPermissions();
+            }
+            String[] permissions = new String[]{permission.WRITE_CALENDAR,
+                    permission.READ_CALENDAR};
+            // Reads run on worker threads, the permission dialog has to start from the UI thread.
+            target.runOnUiThread(() -> target.requestPermissions(permissions, MY_CAL_REQ));
+        }
+        return true;
+    }
+
+    /**
+     * Returns the calendars on the device. The list is cached and only re-read from the provider
+     * after something in the calendar provider has changed.
+     *
+     * @return List of Calendars
+     */
+    public ArrayList<Calendar> getCalendars() {
+        if (!hasPermissions()) {
+            requestPermissions();
+        }
+
+        changeMonitor.start();
+        long generation = changeMonitor.getGeneration();
+        List<Calendar> cached = cachedCalendars;
+        if (cached != null && cachedCalendarsGeneration == generation) {
+            return new ArrayList<>(cached);
+        }
+
+        ArrayList<Calendar> calendarList = queryCalendars();
+        if (calendarList != null) {
+            cachedCalendarsGeneration = generation;
+            cachedCalendars = Collections.unmodifiableList(new ArrayList<>(calendarList));
+            return calendarList;
+        }
+        return new ArrayList<>();
+    }
+
+    private ArrayList<Calendar> queryCalendars() {
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            String[] mProjection =
+                    {
+                            Calendars._ID,
+                            Calendars.ACCOUNT_NAME,
+                            Calendars.CALENDAR_DISPLAY_NAME,
+                            Calendars.OWNER_ACCOUNT,
+                            Calendars.CALENDAR_ACCESS_LEVEL,
+                            Calendars.CALENDAR_COLOR,
+                            Calendars.VISIBLE,
+                            Calendars.SYNC_EVENTS,
+                            Calendars.CALENDAR_TIME_ZONE,
+                    };
+
+            Uri uri = Calendars.CONTENT_URI;
+
+            Cursor cur = session.query(uri, mProjection, null, null, null);
+            if (cur == null) {
+                return null;
+            }
+
+            ArrayList<Calendar> calendarList = new ArrayList<>();
+            try {
+                while (cur.moveToNext()) {
+                    String calenderId = cur.getLong(cur.getColumnIndex(Calendars._ID)) + "";
+                    String displayName = cur
+                            .getString(cur.getColumnIndex(Calendars.CALENDAR_DISPLAY_NAME));
+                    String accountName = cur
+                            .getString(cur.getColumnIndex(Calendars.ACCOUNT_NAME));
+                    String ownerName = cur
+                            .getString(cur.getColumnIndex(Calendars.OWNER_ACCOUNT));
+                    int accessLevel =
+                            cur.getInt(cur.getColumnIndex(Calendars.CALENDAR_ACCESS_LEVEL));
+                    int color = cur.getInt(cur.getColumnIndex(Calendars.CALENDAR_COLOR));
+                    boolean isVisible = cur.getInt(cur.getColumnIndex(Calendars.VISIBLE)) != 0;
+                    boolean isSyncEnabled =
+                            cur.getInt(cur.getColumnIndex(Calendars.SYNC_EVENTS)) != 0;
+                    String timeZone = cur
+                            .getString(cur.getColumnIndex(Calendars.CALENDAR_TIME_ZONE));
+                    Calendar calendar = new Calendar(calenderId, displayName, accountName,
+                            ownerName, accessLevel < Calendars.CAL_ACCESS_CONTRIBUTOR, color,
+                            isVisible, isSyncEnabled, timeZone);
+                    calendarList.add(calendar);
+                }
+            } catch (Exception e) {
+                Log.e("XXX", e.getMessage());
+                return null;
+            } finally {
+                cur.close();
+            }
+            return calendarList;
+        }
+    }
+
+    public ArrayList<CalendarEvent> getAllEvents(String calendarId) {
+        return getAllEvents(calendarId, null, null);
+    }
+
+    ArrayList<CalendarEvent> getAllEvents(String calendarId, EventFilter filter,
+                                          CancellationSignal signal) {
+        return getEventRange(EventFilter.where(allEventsSelection(calendarId), filter),
+                EventFilter.args(filter), null, null, signal).toList();
+    }
+
+    /**
+     * Streams all the events of the calendar into the writer as a JSON array.
+     */
+    void writeAllEvents(JsonWriter out, String calendarId, EventFilter filter,
+                        CancellationSignal signal) throws IOException {
+        writeEvents(out, EventFilter.where(allEventsSelection(calendarId), filter),
+                EventFilter.args(filter), null, null, signal);
+    }
+
+    public ArrayList<CalendarEvent> getEventsByDateRange(String calendarId, long startDate, long endDate) {
+        return getEventRangeByDateRange(calendarId, startDate, endDate, null).toList();
+    }
+
+    /**
+     * Same as {@link #getEventsByDateRange} but keeps recurring events in their compact
+     * {@link EventSeries} form.
+     */
+    public CalendarEventRange getEventRangeByDateRange(String calendarId, long startDate,
+                                                       long endDate, CancellationSignal signal) {
+        return getEventRangeByDateRange(calendarId, startDate, endDate, null, signal);
+    }
+
+    CalendarEventRange getEventRangeByDateRange(String calendarId, long startDate, long endDate,
+                                                EventFilter filter, CancellationSignal signal) {
+        return getEventRange(
+                EventFilter.where(dateRangeSelection(calendarId, startDate, endDate), filter),
+                EventFilter.args(filter), startDate, endDate, signal);
+    }
+
+    /**
+     * Streams the events of the given date range into the writer as a JSON array.
+     *
+     * @param background - Enriches the events on the background pool, for prefetches
+     */
+    void writeEventsByDateRange(JsonWriter out, String calendarId, long startDate, long endDate,
+                                EventFilter filter, boolean background,
+                                CancellationSignal signal) throws IOException {
+        writeEvents(out,
+                EventFilter.where(dateRangeSelection(calendarId, startDate, endDate), filter),
+                EventFilter.args(filter), startDate, endDate, background, signal);
+    }
+
+    /**
+     * Returns the events of the window as a list, partitioned for wide windows, see
+     * {@link #isPartitioned}.
+     */
+    ArrayList<CalendarEvent> getEventsByDateRange(String calendarId, long startDate,
+                                                  long endDate, EventFilter filter,
+                                                  CancellationSignal signal) {
+        if (isPartitioned(startDate, endDate)) {
+            return getEventsByDateRangePartitioned(calendarId, startDate, endDate, filter,
+                    signal);
+        }
+        return getEventRangeByDateRange(calendarId, startDate, endDate, filter, signal).toList();
+    }
+
+    /**
+     * Sets the window length from which reads are split into sub-ranges read in parallel.
+     * Partitioned reads take the occurrences the provider expanded into the Instances table
+     * rather than the Events rows, see {@link #getEventsByDateRangePartitioned}, which is why
+     * they are opt-in.
+     *
+     * @param thresholdMs - 0 or less to always read serially, the default
+     */
+    void setParallelReadThreshold(long thresholdMs) {
+        parallelThresholdMs = Math.max(0, thresholdMs);
+    }
+
+    boolean isPartitioned(long startDate, long endDate) {
+        long threshold = parallelThresholdMs;
+        return threshold > 0 && endDate - startDate >= threshold
+                && endDate - startDate >= 2 * MIN_PARTITION_MS;
+    }
+
+    /**
+     * Reads a wide window as consecutive sub-ranges of the Instances table, one per worker of
+     * a pool sized to the cores. Each sub-range returns the instances beginning in it (the
+     * first one also those already running at the window start) in begin order, so
+     * concatenating them in order gives the start ordered result. Recurring events come
+     * expanded by the provider; the distinct events are enriched once, after the merge.
+     *
+     * Unlike the serial read of the Events rows, the provider leaves out cancelled occurrences
+     * and computes the end of events stored with a DURATION, so both don't always agree on
+     * these.
+     *
+     * @throws OperationCanceledException if the signal was cancelled
+     */
+    ArrayList<CalendarEvent> getEventsByDateRangePartitioned(String calendarId,
+                                                             long startDate, long endDate,
+                                                             EventFilter filter,
+                                                             CancellationSignal signal) {
+        ArrayList<CalendarEvent> events = new ArrayList<>();
+        if (!hasPermissions()) {
+            requestPermissions();
+            return events;
+        }
+
+        List<Future<List<CalendarEvent>>> partitions =
+                readPartitions(calendarId, startDate, endDate, filter, signal);
+        try {
+            for (Future<List<CalendarEvent>> partition : partitions) {
+                events.addAll(awaitPartition(partition));
+            }
+        } finally {
+            cancelPartitions(partitions);
+        }
+
+        updateRemindersAndAttendees(events, signal);
+        return events;
+    }
+
+    /**
+     * Streams the events of the window into the writer as a JSON array, as
+     * {@link #getEventsByDateRangePartitioned} reads them. Each sub-range is enriched and
+     * written as soon as it and the ones before it are read, so only the sub-ranges still
+     * waiting to be written are held in memory.
+     *
+     * @param background - Enriches the events on the background pool, for prefetches
+     * @throws OperationCanceledException if the signal was cancelled
+     */
+    void writeEventsByDateRangePartitioned(JsonWriter out, String calendarId, long startDate,
+                                           long endDate, EventFilter filter, boolean background,
+                                           CancellationSignal signal) throws IOException {
+        out.beginArray();
+        if (!hasPermissions()) {
+            requestPermissions();
+            out.endArray();
+            return;
+        }
+
+        List<Future<List<CalendarEvent>>> partitions =
+                readPartitions(calendarId, startDate, endDate, filter, signal);
+        try {
+            // The occurrences of a series span sub-ranges, its event is enriched only once.
+            Map<String, Enrichment> enrichments = new HashMap<>();
+            Set<String> enriched = new HashSet<>();
+            for (Future<List<CalendarEvent>> partition : partitions) {
+                List<CalendarEvent> events = awaitPartition(partition);
+                Set<String> missing = new LinkedHashSet<>();
+                for (CalendarEvent event : events) {
+                    if (enriched.add(event.getEventId())) {
+                        missing.add(event.getEventId());
+                    }
+                }
+                enrichments.putAll(loadEnrichment(missing, background, signal));
+                for (CalendarEvent event : events) {
+                    throwIfCanceled(signal);
+                    Enrichment enrichment = enrichments.get(event.getEventId());
+                    CalendarJsonWriter.writeEvent(out, event.getEventId(), event.getTitle(),
+                            event.getDescription(), event.getStartDate(), event.getEndDate(),
+                            event.getLocation(), event.getUrl(), 0, event.isAllDay(),
+                            event.isHasAlarm(), enrichment != null ? enrichment.reminder : null,
+                            enrichment != null ? enrichment.attendees : null,
+                            enrichment == null);
+                }
+            }
+        } finally {
+            cancelPartitions(partitions);
+            out.endArray();
+        }
+    }
+
+    /**
+     * Starts reading the sub-ranges of the window on the partition pool.
+     *
+     * @return the sub-ranges in window order
+     */
+    private List<Future<List<CalendarEvent>>> readPartitions(final String calendarId,
+                                                             long startDate, long endDate,
+                                                             final EventFilter filter,
+                                                             final CancellationSignal signal) {
+        int partitions = (int) Math.max(2,
+                Math.min(PARTITION_THREADS, (endDate - startDate) / MIN_PARTITION_MS));
+        long step = (endDate - startDate) / partitions;
+        List<Future<List<CalendarEvent>>> futures = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            final long from = i == 0 ? -1 : startDate + i * step;
+            final long to = i == partitions - 1 ? -1 : startDate + (i + 1) * step;
+            final long queryStart = i == 0 ? startDate : from;
+            final long queryEnd = i == partitions - 1 ? endDate : to;
+            futures.add(partitionPool.submit(() -> queryInstances(calendarId, queryStart,
+                    queryEnd, from, to, filter, signal)));
+        }
+        return futures;
+    }
+
+    private static List<CalendarEvent> awaitPartition(Future<List<CalendarEvent>> partition) {
+        try {
+            return partition.get();
+        } catch (ExecutionException e) {
+            // Cancellation and permission errors reach the caller as if read serially.
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperationCanceledException();
+        }
+    }
+
+    // Once a sub-range failed, the others aren't needed anymore.
+    private static void cancelPartitions(List<Future<List<CalendarEvent>>> partitions) {
+        for (Future<List<CalendarEvent>> partition : partitions) {
+            partition.cancel(false);
+        }
+    }
+
+    /**
+     * Reads the instances of the calendar overlapping the window, in begin order.
+     *
+     * @param beginFrom - Only keeps instances beginning at or after it, -1 for no bound
+     * @param beginTo - Only keeps instances beginning before it, -1 for no bound
+     */
+    private List<CalendarEvent> queryInstances(String calendarId, long queryStart,
+                                               long queryEnd, long beginFrom, long beginTo,
+                                               EventFilter filter,
+                                               CancellationSignal signal) {
+        String[] projection = {
+                Instances.EVENT_ID,
+                Instances.TITLE,
+                Instances.DESCRIPTION,
+                Instances.EVENT_LOCATION,
+                Instances.CUSTOM_APP_URI,
+                Instances.BEGIN,
+                Instances.END,
+                Instances.ALL_DAY,
+                Instances.HAS_ALARM,
+        };
+        Uri uri = Instances.CONTENT_URI
+                .buildUpon()
+                .appendPath(String.valueOf(queryStart))
+                .appendPath(String.valueOf(queryEnd))
+                .build();
+        List<String> selectionArgs = new ArrayList<>();
+        StringBuilder selection = new StringBuilder(Instances.CALENDAR_ID).append(" = ? AND ")
+                .append(Events.DELETED).append(" != 1");
+        selectionArgs.add(calendarId);
+        if (beginFrom >= 0) {
+            selection.append(" AND ").append(Instances.BEGIN).append(" >= ?");
+            selectionArgs.add(String.valueOf(beginFrom));
+        }
+        if (beginTo >= 0) {
+            selection.append(" AND ").append(Instances.BEGIN).append(" < ?");
+            selectionArgs.add(String.valueOf(beginTo));
+        }
+        if (filter != null) {
+            selectionArgs.addAll(Arrays.asList(EventFilter.args(filter)));
+        }
+
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            Cursor cur = session.query(uri, projection,
+                    EventFilter.where(selection.toString(), filter),
+                    selectionArgs.toArray(new String[0]), Instances.BEGIN + " ASC", signal);
+            List<CalendarEvent> events = new ArrayList<>();
+            if (cur == null) {
+                Log.e("CursorError", "Cursor is null");
+                return events;
+            }
+            try {
+                while (cur.moveToNext()) {
+                    events.add(new CalendarEvent(cur.getString(0), cur.getString(1),
+                            cur.getString(2), cur.getLong(5), cur.getLong(6), cur.getString(3),
+                            cur.getString(4), cur.getInt(7) > 0, cur.getInt(8) > 0));
+                }
+            } finally {
+                cur.close();
+            }
+            return events;
+        }
+    }
+
+    private static String allEventsSelection(String calendarId) {
+        return Events.CALENDAR_ID + " = " + calendarId + " AND " + Events.DELETED + " != 1";
+    }
+
+    private static String dateRangeSelection(String calendarId, long startDate, long endDate) {
+        // 扩展查询条件以包含周期性事件
+        String selection = Events.CALENDAR_ID + " = " + calendarId
+                + " AND " + Events.DELETED + " != 1"
+                + " AND ("
+                + "((" + Events.DTSTART + " <= " + endDate + ")"    // 事件开始时间在查询结束时间之前
+                + " AND ("
+                + Events.DTEND + " >= " + startDate + ")"       // 事件结束时间在查询开始时间之后
+                + ")"
+                + " OR (" + Events.RRULE + " IS NOT NULL"           // 包含重复事件规则
+                + " AND " + Events.DTSTART + " <= " + endDate + ")" // 重复事件开始时间早于查询结束时间
+                + ")";
+
+        // 添加调试日志
+        Log.d("CalendarDebug", "Querying events with condition: " + selection);
+        return selection;
+    }
+
+    /**
+     * Return all the events from calendar which satisfies the given query selection
+     *
+     * @param selection - Conditions to filter the calendar events
+     * @return List of Calendar events
+     */
+    public ArrayList<CalendarEvent> getEvents(String selection, Long queryStart, Long queryEnd) {
+        return getEventRange(selection, null, queryStart, queryEnd, null).toList();
+    }
+
+    /**
+     * Return all the events from calendar which satisfies the given query selection, with the
+     * occurrences of each recurring event grouped into one {@link EventSeries}
+     *
+     * @param selection - Conditions to filter the calendar events
+     * @param selectionArgs - Arguments bound to the selection, may be null
+     * @param signal - Aborts the provider queries and the enrichment once cancelled, may be null
+     * @return Range of Calendar events
+     * @throws OperationCanceledException if the signal was cancelled
+     */
+    public CalendarEventRange getEventRange(String selection, String[] selectionArgs,
+                                            Long queryStart, Long queryEnd,
+                                            CancellationSignal signal) {
+        CalendarEventRange calendarEvents = new CalendarEventRange();
+        if (!hasPermissions()) {
+            requestPermissions();
+            return calendarEvents; // 如果没有权限，返回空列表
+        }
+
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            Cursor cur = queryEvents(session, selection, selectionArgs, signal);
+            if (cur == null) {
+                return calendarEvents;
+            }
+
+            try {
+                EventRow row = new EventRow(cur);
+                if (!row.hasRequiredColumns()) {
+                    Log.e("CursorError", "Required columns not found");
+                    return calendarEvents;
+                }
+                long start = queryStart != null ? queryStart : defaultQueryStart();
+                long end = queryEnd != null ? queryEnd : defaultQueryEnd();
+                while (cur.moveToNext()) {
+                    row.read();
+                    if (row.isRecurring()) {
+                        EventSeries series =
+                                getRecurringEventInstances(row.toEvent(), start, end, signal);
+                        if (series != null) {
+                            calendarEvents.addSeries(series);
+                        }
+                    } else {
+                        // 非周期性事件直接添加
+                        calendarEvents.addEvent(row.toEvent());
+                    }
+                }
+            } catch (OperationCanceledException e) {
+                throw e;
+            } catch (Exception e) {
+                Log.e("XXX", e.getMessage());
+            } finally {
+                cur.close();
+            }
+
+            // A series is enriched once through its payload, its occurrences share the result.
+            List<CalendarEvent> toEnrich = new ArrayList<>(calendarEvents.getEvents());
+            for (EventSeries series : calendarEvents.getSeries()) {
+                toEnrich.add(series.getEvent());
+            }
+            updateRemindersAndAttendees(toEnrich, signal);
+            return calendarEvents;
+        }
+    }
+
+    /**
+     * Writes the events which satisfy the given query selection straight from the cursor into
+     * the writer, as the same JSON array {@link #getEvents} would be serialized to, ordered by
+     * start date. The cursor is walked twice: once to collect the ids to enrich and the
+     * occurrence times of each series, then again to merge the rows with the occurrences.
+     *
+     * @param selection - Conditions to filter the calendar events
+     * @param selectionArgs - Arguments bound to the selection, may be null
+     * @param signal - Aborts the provider queries and the enrichment once cancelled, may be null
+     * @throws OperationCanceledException if the signal was cancelled
+     */
+    public void writeEvents(JsonWriter out, String selection, String[] selectionArgs,
+                            Long queryStart, Long queryEnd, CancellationSignal signal)
+            throws IOException {
+        writeEvents(out, selection, selectionArgs, queryStart, queryEnd, false, signal);
+    }
+
+    /**
+     * @param background - Enriches the events on the background pool, for prefetches
+     */
+    private void writeEvents(JsonWriter out, String selection, String[] selectionArgs,
+                             Long queryStart, Long queryEnd, boolean background,
+                             CancellationSignal signal) throws IOException {
+        out.beginArray();
+        if (!hasPermissions()) {
+            requestPermissions();
+            out.endArray();
+            return;
+        }
+
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            Cursor cur = queryEvents(session, selection, selectionArgs, signal);
+            if (cur == null) {
+                out.endArray();
+                return;
+            }
+
+            try {
+                EventRow row = new EventRow(cur);
+                if (!row.hasRequiredColumns()) {
+                    Log.e("CursorError", "Required columns not found");
+                    return;
+                }
+                long start = queryStart != null ? queryStart : defaultQueryStart();
+                long end = queryEnd != null ? queryEnd : defaultQueryEnd();
+
+                Set<String> eventIds = new LinkedHashSet<>();
+                Map<String, EventSeries> seriesById = new LinkedHashMap<>();
+                while (cur.moveToNext()) {
+                    row.read();
+                    if (row.isRecurring()) {
+                        EventSeries series =
+                                getRecurringEventInstances(row.toEvent(), start, end, signal);
+                        if (series == null) {
+                            continue;
+                        }
+                        seriesById.put(row.eventId, series);
+                    }
+                    eventIds.add(row.eventId);
+                }
+
+                Map<String, Enrichment> enrichments =
+                        loadEnrichment(eventIds, background, signal);
+
+                // The one-off rows come in start order and the occurrences of each series are
+                // sorted, so the output is merged through a heap of the series heads rather than
+                // sorted. The cursor itself is the one-off source, it wins ties.
+                PriorityQueue<SeriesHead> heads = new PriorityQueue<>(seriesById.size() + 1);
+                for (EventSeries series : seriesById.values()) {
+                    heads.add(new SeriesHead(heads.size(), series));
+                }
+                cur.moveToPosition(-1);
+                boolean hasRow = nextOneOffRow(cur, row);
+                while (hasRow || !heads.isEmpty()) {
+                    throwIfCanceled(signal);
+                    SeriesHead head = heads.peek();
+                    if (hasRow && (head == null || row.startDate <= head.begin())) {
+                        Enrichment enrichment = enrichments.get(row.eventId);
+                        CalendarJsonWriter.writeEvent(out, row.eventId, row.title, row.description,
+                                row.startDate, row.endDate, row.location, row.url, 0, row.isAllDay,
+                                row.hasAlarm, enrichment != null ? enrichment.reminder : null,
+                                enrichment != null ? enrichment.attendees : null,
+                                enrichment == null);
+                        hasRow = nextOneOffRow(cur, row);
+                    } else {
+                        heads.poll();
+                        CalendarEvent event = head.series.getEvent();
+                        Enrichment enrichment = enrichments.get(event.getEventId());
+                        CalendarJsonWriter.writeEvent(out, event.getEventId(), event.getTitle(),
+                                event.getDescription(), head.begin(),
+                                head.series.getEnd(head.index), event.getLocation(), event.getUrl(),
+                                0, event.isAllDay(), event.isHasAlarm(),
+                                enrichment != null ? enrichment.reminder : null,
+                                enrichment != null ? enrichment.attendees : null,
+                                enrichment == null);
+                        if (++head.index < head.series.size()) {
+                            heads.add(head);
+                        }
+                    }
+                }
+            } finally {
+                cur.close();
+                out.endArray();
+            }
+        }
+    }
+
+    /**
+     * Returns the first {@code limit} events by start date that overlap the given window.
+     *
+     * Rows come in DTSTART order and no occurrence of a series starts before its row, so the
+     * walk stops at the first row starting after the {@code limit} earliest starts seen so
+     * far: later series are never expanded, and only the returned events are enriched.
+     *
+     * @param signal - Aborts the provider queries and the enrichment once cancelled, may be null
+     * @throws OperationCanceledException if the signal was cancelled
+     */
+    ArrayList<CalendarEvent> getNextEvents(String calendarId, long startDate, long endDate,
+                                           int limit, EventFilter filter,
+                                           CancellationSignal signal) {
+        if (!hasPermissions()) {
+            requestPermissions();
+            return new ArrayList<>();
+        }
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            Cursor cur = queryEvents(session,
+                    EventFilter.where(dateRangeSelection(calendarId, startDate, endDate), filter),
+                    EventFilter.args(filter), signal);
+            if (cur == null) {
+                return new ArrayList<>();
+            }
+
+            CalendarEventRange range = new CalendarEventRange();
+            try {
+                EventRow row = new EventRow(cur);
+                if (!row.hasRequiredColumns()) {
+                    Log.e("CursorError", "Required columns not found");
+                    return new ArrayList<>();
+                }
+                // Max-heap of the limit earliest starts seen so far.
+                PriorityQueue<Long> earliest =
+                        new PriorityQueue<>(Math.min(limit, 64), Collections.reverseOrder());
+                while (cur.moveToNext()) {
+                    row.read();
+                    if (earliest.size() == limit && earliest.peek() <= row.startDate) {
+                        break;
+                    }
+                    if (row.isRecurring()) {
+                        EventSeries series = getRecurringEventInstances(row.toEvent(),
+                                startDate, endDate, signal);
+                        if (series == null) {
+                            continue;
+                        }
+                        range.addSeries(series);
+                        for (int i = 0; i < series.size(); i++) {
+                            if (!offerBounded(earliest, limit, series.getBegin(i))) {
+                                break;
+                            }
+                        }
+                    } else {
+                        range.addEvent(row.toEvent());
+                        offerBounded(earliest, limit, row.startDate);
+                    }
+                }
+            } catch (OperationCanceledException e) {
+                throw e;
+            } catch (Exception e) {
+                Log.e("XXX", e.getMessage());
+            } finally {
+                cur.close();
+            }
+
+            ArrayList<CalendarEvent> events = range.toList(limit);
+            updateRemindersAndAttendees(events, signal);
+            return events;
+        }
+    }
+
+    /**
+     * Finds the occurrences which are duplicated, within or across the given calendars, in the
+     * window. Only the Instances table is read, nothing is enriched.
+     *
+     * @return Groups of two or more occurrences with the same content
+     * @throws OperationCanceledException if the signal was cancelled
+     */
+    List<List<DuplicateIndex.Occurrence>> findDuplicates(List<String> calendarIds,
+                                                         long startDate, long endDate,
+                                                         EventFilter filter,
+                                                         CancellationSignal signal) {
+        DuplicateIndex index = new DuplicateIndex();
+        if (!hasPermissions()) {
+            requestPermissions();
+            return index.getClusters();
+        }
+        if (calendarIds.isEmpty()) {
+            return index.getClusters();
+        }
+
+        String[] projection = {
+                Instances.EVENT_ID,
+                Instances.CALENDAR_ID,
+                Instances.TITLE,
+                Instances.BEGIN,
+                Instances.END,
+                Instances.EVENT_LOCATION,
+                Instances.ALL_DAY,
+        };
+        Uri uri = Instances.CONTENT_URI
+                .buildUpon()
+                .appendPath(String.valueOf(startDate))
+                .appendPath(String.valueOf(endDate))
+                .build();
+        StringBuilder selection = new StringBuilder(Instances.CALENDAR_ID).append(" IN (");
+        for (int i = 0; i < calendarIds.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(") AND ").append(Events.DELETED).append(" != 1");
+        List<String> selectionArgs = new ArrayList<>(calendarIds);
+        if (filter != null) {
+            selectionArgs.addAll(Arrays.asList(EventFilter.args(filter)));
+        }
+
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            Cursor cur = session.query(uri, projection,
+                    EventFilter.where(selection.toString(), filter),
+                    selectionArgs.toArray(new String[0]), Instances.BEGIN + " ASC", signal);
+            if (cur == null) {
+                Log.e("CursorError", "Cursor is null");
+                return index.getClusters();
+            }
+            try {
+                while (cur.moveToNext()) {
+                    String title = cur.getString(2);
+                    long begin = cur.getLong(3);
+                    long end = cur.getLong(4);
+                    long fingerprint = DuplicateIndex.fingerprint(title, begin, end,
+                            cur.getString(5), cur.getInt(6) > 0);
+                    index.add(fingerprint, new DuplicateIndex.Occurrence(cur.getString(0),
+                            cur.getString(1), title, begin, end));
+                }
+            } finally {
+                cur.close();
+            }
+            return index.getClusters();
+        }
+    }
+
+    /**
+     * Returns the next {@code limit} alarms firing between {@code now} and {@code until}, by
+     * alarm time, across every calendar. Instances with an alarm are walked by begin time and
+     * their reminders looked up a page at a time; the earliest alarms are kept in a bounded
+     * max-heap, and the walk stops as soon as no later instance can fire before the latest of
+     * them.
+     *
+     * @throws OperationCanceledException if the signal was cancelled
+     */
+    public List<Alarm> getUpcomingAlarms(long now, long until, int limit,
+                                         CancellationSignal signal) {
+        List<Alarm> alarms = new ArrayList<>();
+        if (!hasPermissions()) {
+            requestPermissions();
+            return alarms;
+        }
+        if (limit <= 0 || until < now) {
+            return alarms;
+        }
+
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            long maxLead = getMaxReminderMinutes(signal) * 60 * 1000;
+            if (maxLead < 0) {
+                return alarms; // No reminder at all.
+            }
+            String[] projection = {
+                    Instances.EVENT_ID,
+                    Instances.TITLE,
+                    Instances.BEGIN,
+                    Instances.END,
+                    Instances.ALL_DAY,
+            };
+            // An alarm fires at most maxLead before its instance, and never before it for a
+            // reminder of 0 minutes. All-day instances are stored at UTC midnight but alarm
+            // from local midnight, which is up to a day earlier.
+            Uri uri = Instances.CONTENT_URI
+                    .buildUpon()
+                    .appendPath(String.valueOf(now))
+                    .appendPath(String.valueOf(until + maxLead + ALL_DAY_SHIFT_MS))
+                    .build();
+            // Hidden calendars don't alarm.
+            String selection = Instances.HAS_ALARM + " = 1 AND " + Events.DELETED + " != 1"
+                    + " AND " + Calendars.VISIBLE + " = 1";
+            Cursor cur = session.query(uri, projection, selection, null,
+                    Instances.BEGIN + " ASC", signal);
+            if (cur == null) {
+                Log.e("CursorError", "Cursor is null");
+                return alarms;
+            }
+
+            // Latest alarm on top, so it's the one replaced by an earlier one.
+            PriorityQueue<Alarm> earliest = new PriorityQueue<>(Math.min(limit, 64),
+                    (a, b) -> Long.compare(b.getAlarmTime(), a.getAlarmTime()));
+            Map<String, long[]> minutesByEvent = new HashMap<>();
+            String[] eventIds = new String[ALARM_PAGE_SIZE];
+            String[] titles = new String[ALARM_PAGE_SIZE];
+            long[] begins = new long[ALARM_PAGE_SIZE];
+            long[] ends = new long[ALARM_PAGE_SIZE];
+            long[] alarmBases = new long[ALARM_PAGE_SIZE];
+            try {
+                boolean done = false;
+                while (!done) {
+                    int size = 0;
+                    while (size < ALARM_PAGE_SIZE && cur.moveToNext()) {
+                        eventIds[size] = cur.getString(0);
+                        titles[size] = cur.getString(1);
+                        begins[size] = cur.getLong(2);
+                        ends[size] = cur.getLong(3);
+                        alarmBases[size] = cur.getInt(4) == 1
+                                ? localMidnight(begins[size]) : begins[size];
+                        size++;
+                    }
+                    if (size == 0) {
+                        break;
+                    }
+                    loadReminderMinutes(eventIds, size, minutesByEvent, signal);
+                    for (int i = 0; i < size; i++) {
+                        if (earliest.size() == limit && begins[i] - maxLead - ALL_DAY_SHIFT_MS
+                                >= earliest.peek().getAlarmTime()) {
+                            done = true;
+                            break;
+                        }
+                        long[] minutes = minutesByEvent.get(eventIds[i]);
+                        if (minutes == null) {
+                            continue;
+                        }
+                        for (long m : minutes) {
+                            Alarm alarm = new Alarm(eventIds[i], titles[i], begins[i], ends[i], m,
+                                    alarmBases[i]);
+                            if (alarm.getAlarmTime() < now || alarm.getAlarmTime() > until) {
+                                continue;
+                            }
+                            if (earliest.size() < limit) {
+                                earliest.add(alarm);
+                            } else if (alarm.getAlarmTime() < earliest.peek().getAlarmTime()) {
+                                earliest.poll();
+                                earliest.add(alarm);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                cur.close();
+            }
+
+            alarms.addAll(earliest);
+            Collections.sort(alarms, (a, b) -> Long.compare(a.getAlarmTime(), b.getAlarmTime()));
+            return alarms;
+        }
+    }
+
+    /**
+     * Returns the longest lead time of any device reminder in minutes, or -1 if there is none.
+     */
+    private long getMaxReminderMinutes(CancellationSignal signal) {
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            Cursor cur = session.query(Reminders.CONTENT_URI,
+                    new String[]{Reminders.MINUTES}, ALARM_METHODS, null,
+                    Reminders.MINUTES + " DESC", signal);
+            if (cur == null) {
+                return -1;
+            }
+            try {
+                return cur.moveToFirst() ? Math.max(0, cur.getLong(0)) : -1;
+            } finally {
+                cur.close();
+            }
+        }
+    }
+
+    /**
+     * Adds the device reminder minutes of the events missing from the map, with one query.
+     * Events without any reminder are mapped to an empty array.
+     */
+    private void loadReminderMinutes(String[] eventIds, int size,
+                                     Map<String, long[]> minutesByEvent,
+                                     CancellationSignal signal) {
+        Set<String> missing = new LinkedHashSet<>();
+        for (int i = 0; i < size; i++) {
+            if (!minutesByEvent.containsKey(eventIds[i])) {
+                missing.add(eventIds[i]);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        StringBuilder selection = new StringBuilder(ALARM_METHODS)
+                .append(" AND ").append(Reminders.EVENT_ID).append(" IN (");
+        for (int i = 0; i < missing.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(")");
+        Map<String, List<Long>> found = new HashMap<>();
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            Cursor cur = session.query(Reminders.CONTENT_URI,
+                    new String[]{Reminders.EVENT_ID, Reminders.MINUTES}, selection.toString(),
+                    missing.toArray(new String[0]), null, signal);
+            if (cur != null) {
+                try {
+                    while (cur.moveToNext()) {
+                        String eventId = cur.getString(0);
+                        List<Long> minutes = found.get(eventId);
+                        if (minutes == null) {
+                            minutes = new ArrayList<>(1);
+                            found.put(eventId, minutes);
+                        }
+                        // The provider stores -1 for "use the default", which means at the start.
+                        minutes.add(Math.max(0, cur.getLong(1)));
+                    }
+                } finally {
+                    cur.close();
+                }
+            }
+            for (String eventId : missing) {
+                List<Long> minutes = found.get(eventId);
+                long[] values = new long[minutes != null ? minutes.size() : 0];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = minutes.get(i);
+                }
+                minutesByEvent.put(eventId, values);
+            }
+        }
+    }
+
+    /**
+     * Merges the start ordered events of several calendars into one start ordered list. Events
+     * starting together keep the order of the calendars, so {@link #collapseDuplicates} keeps
+     * the copy of the first calendar.
+     */
+    static List<CalendarEvent> mergeByStart(List<List<CalendarEvent>> calendars) {
+        if (calendars.size() == 1) {
+            return calendars.get(0);
+        }
+        ArrayList<CalendarEvent> merged = new ArrayList<>();
+        for (List<CalendarEvent> events : calendars) {
+            merged.addAll(events);
+        }
+        // The sort is stable, ties stay in calendar order.
+        Collections.sort(merged, (a, b) -> Long.compare(a.getStartDate(), b.getStartDate()));
+        return merged;
+    }
+
+    /**
+     * Drops the events whose content duplicates an earlier event of the list, see
+     * {@link DuplicateIndex}. To also drop the copies held in other calendars, pass the events
+     * of all of them, see {@link #mergeByStart}.
+     */
+    static ArrayList<CalendarEvent> collapseDuplicates(List<CalendarEvent> events) {
+        Set<Long> fingerprints = new HashSet<>(events.size() * 2);
+        ArrayList<CalendarEvent> unique = new ArrayList<>(events.size());
+        for (CalendarEvent event : events) {
+            long fingerprint = DuplicateIndex.fingerprint(event.getTitle(), event.getStartDate(),
+                    event.getEndDate(), event.getLocation(), event.isAllDay());
+            if (fingerprints.add(fingerprint)) {
+                unique.add(event);
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Returns the local midnight of the date an all-day instance, stored at UTC midnight, falls
+     * on.
+     */
+    private static long localMidnight(long utcMidnight) {
+        java.util.Calendar utc = java.util.Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        utc.setTimeInMillis(utcMidnight);
+        java.util.Calendar local = java.util.Calendar.getInstance();
+        local.clear();
+        local.set(utc.get(java.util.Calendar.YEAR), utc.get(java.util.Calendar.MONTH),
+                utc.get(java.util.Calendar.DAY_OF_MONTH));
+        return local.getTimeInMillis();
+    }
+
+    /**
+     * Adds the start to the bounded max-heap.
+     *
+     * @return false if the heap is full and the start is not earlier than any in it
+     */
+    private static boolean offerBounded(PriorityQueue<Long> earliest, int limit, long start) {
+        if (earliest.size() < limit) {
+            earliest.add(start);
+            return true;
         }
-
+        if (start >= earliest.peek()) {
+            return false;
+        }
+        earliest.poll();
+        earliest.add(start);
         return true;
     }
 
-    void requestPermissions() {
-        if (23 <= android.os.Build.VERSION.SDK_INT && activity != null) {
-            String[] permissions = new String[]{permission.WRITE_CALENDAR,
-                    permission.READ_CALENDAR};
-            activity.requestPermissions(permissions, MY_CAL_REQ);
+    /**
+     * Moves the cursor to the next row which isn't a recurring event and reads it.
+     */
+    private static boolean nextOneOffRow(Cursor cur, EventRow row) {
+        while (cur.moveToNext()) {
+            row.read();
+            if (!row.isRecurring()) {
+                return true;
+            }
         }
+        return false;
     }
 
-    public ArrayList<Calendar> getCalendars() {
-        ContentResolver cr = ctx.getContentResolver();
-        ArrayList<Calendar> calendarList = new ArrayList<>();
-
-        String[] mProjection =
-                {
-                        Calendars._ID,
-                        Calendars.ACCOUNT_NAME,
-                        Calendars.CALENDAR_DISPLAY_NAME,
-                        Calendars.OWNER_ACCOUNT,
-                        Calendars.CALENDAR_ACCESS_LEVEL
-                };
-
-        Uri uri = Calendars.CONTENT_URI;
+    /**
+     * Next unwritten occurrence of a series while merging, see {@link #writeEvents}.
+     */
+    private static final class SeriesHead implements Comparable<SeriesHead> {
+        final int order;
+        final EventSeries series;
+        int index;
+
+        SeriesHead(int order, EventSeries series) {
+            this.order = order;
+            this.series = series;
+        }
 
-        if (!hasPermissions()) {
-            requestPermissions();
+        long begin() {
+            return series.getBegin(index);
         }
-        Cursor cur = cr.query(uri, mProjection, null, null, null);
 
-        try {
-            while (cur.moveToNext()) {
-                String calenderId = cur.getLong(cur.getColumnIndex(Calendars._ID)) + "";
-                String displayName = cur
-                        .getString(cur.getColumnIndex(Calendars.CALENDAR_DISPLAY_NAME));
-                String accountName = cur
-                        .getString(cur.getColumnIndex(Calendars.ACCOUNT_NAME));
-                String ownerName = cur
-                        .getString(cur.getColumnIndex(Calendars.OWNER_ACCOUNT));
-                Calendar calendar = new Calendar(calenderId, displayName, accountName, ownerName);
-                calendarList.add(calendar);
+        @Override
+        public int compareTo(SeriesHead other) {
+            long begin = begin();
+            long otherBegin = other.begin();
+            if (begin != otherBegin) {
+                return begin < otherBegin ? -1 : 1;
             }
-        } catch (Exception e) {
-            Log.e("XXX", e.getMessage());
-        } finally {
-            cur.close();
+            return Integer.compare(order, other.order);
         }
-        return calendarList;
-    }
-
-    public ArrayList<CalendarEvent> getAllEvents(String calendarId) {
-        String selection =
-                Events.CALENDAR_ID + " = " + calendarId + " AND " + Events.DELETED + " != 1";
-        return getEvents(selection, null, null);
-    }
-
-    public ArrayList<CalendarEvent> getEventsByDateRange(String calendarId, long startDate, long endDate) {
-        // 扩展查询条件以包含周期性事件
-        String selection = Events.CALENDAR_ID + " = " + calendarId
-                + " AND " + Events.DELETED + " != 1"
-                + " AND ("
-                + "((" + Events.DTSTART + " <= " + endDate + ")"    // 事件开始时间在查询结束时间之前
-                + " AND ("
-                + Events.DTEND + " >= " + startDate + ")"       // 事件结束时间在查询开始时间之后
-                + ")"
-                + " OR (" + Events.RRULE + " IS NOT NULL"           // 包含重复事件规则
-                + " AND " + Events.DTSTART + " <= " + endDate + ")" // 重复事件开始时间早于查询结束时间
-                + ")";
-
-        // 添加调试日志
-        Log.d("CalendarDebug", "Querying events with condition: " + selection);
-        return getEvents(selection, startDate, endDate);
     }
 
     /**
-     * Return all the events from calendar which satisfies the given query selection
-     *
-     * @param selection - Conditions to filter the calendar events
-     * @return List of Calendar events
+     * Queries the events through the caller's session, the cursor has to be closed before it.
      */
-    public ArrayList<CalendarEvent> getEvents(String selection, Long queryStart, Long queryEnd) {
-        if (!hasPermissions()) {
-            requestPermissions();
-            return new ArrayList<>(); // 如果没有权限，返回空列表
-        }
-
-        ContentResolver cr = ctx.getContentResolver();
-        ArrayList<CalendarEvent> calendarEvents = new ArrayList<>();
-
+    private Cursor queryEvents(ProviderSession session, String selection, String[] selectionArgs,
+                               CancellationSignal signal) {
         Uri uri = Events.CONTENT_URI;
         String eventsSortOrder = Events.DTSTART + " ASC";
 
         // 查询事件
-        Cursor cur = cr.query(uri, EVENT_PROJECTION, selection, null, eventsSortOrder);
-
+        Cursor cur = session.query(uri, EVENT_PROJECTION, selection, selectionArgs,
+                eventsSortOrder, signal);
         if (cur == null) {
             Log.e("CursorError", "Cursor is null");
-            return calendarEvents;
         }
+        return cur;
+    }
 
-        try {
-            if (cur.moveToFirst()) {
-                do {
-                    // 确保列名正确
-                    int eventIdIndex = cur.getColumnIndex(Events._ID);
-                    int titleIndex = cur.getColumnIndex(Events.TITLE);
-                    int descIndex = cur.getColumnIndex(Events.DESCRIPTION);
-                    int locationIndex = cur.getColumnIndex(Events.EVENT_LOCATION);
-                    int urlIndex = cur.getColumnIndex(Events.CUSTOM_APP_URI);
-                    int startDateIndex = cur.getColumnIndex(Events.DTSTART);
-                    int endDateIndex = cur.getColumnIndex(Events.DTEND);
-                    int rRuleIndex = cur.getColumnIndex(Events.RRULE);
-                    int durationIndex = cur.getColumnIndex(Events.DURATION);
-                    int allDayIndex = cur.getColumnIndex(Events.ALL_DAY);
-                    int hasAlarmIndex = cur.getColumnIndex(Events.HAS_ALARM);
-
-                    // 检查列是否存在
-                    if (eventIdIndex == -1 || titleIndex == -1 || startDateIndex == -1 || endDateIndex == -1) {
-                        Log.e("CursorError", "Required columns not found");
-                        continue;
-                    }
-
-                    String eventId = cur.getString(eventIdIndex);
-                    String title = cur.getString(titleIndex);
-                    String desc = descIndex != -1 ? cur.getString(descIndex) : null;
-                    String location = locationIndex != -1 ? cur.getString(locationIndex) : null;
-                    String url = urlIndex != -1 ? cur.getString(urlIndex) : null;
-                    String rRule = rRuleIndex != -1 ? cur.getString(rRuleIndex) : null;
-                    long startDate = cur.getLong(startDateIndex);
-                    long endDate = endDateIndex != -1 ? cur.getLong(endDateIndex) : 0;
-                    long duration = durationIndex != -1 ? cur.getLong(durationIndex) : 0;
-
-                    // 关键修改：如果结束时间为 0，根据持续时间计算
-                    if (endDate == 0 && duration > 0) {
-                        endDate = startDate + duration;
-                    }
-
-                    boolean isAllDay = allDayIndex != -1 && cur.getInt(allDayIndex) > 0;
-                    boolean hasAlarm = hasAlarmIndex != -1 && cur.getInt(hasAlarmIndex) > 0;
-
-                    // 在读取 rRule 后，添加以下逻辑
-                    if (rRule != null && !rRule.isEmpty()) {
-                        long start = queryStart != null ? queryStart :
-                                LocalDateTime.now().minusMonths(6)
-                                        .withHour(0).withMinute(0).withSecond(0)
-                                        .atZone(ZoneId.systemDefault())
-                                        .toInstant().toEpochMilli();
-
-                        long end = queryEnd != null ? queryEnd :
-                                LocalDateTime.now().plusMonths(6)
-                                        .withHour(23).withMinute(59).withSecond(59)
-                                        .atZone(ZoneId.systemDefault())
-                                        .toInstant().toEpochMilli();
-
-                        List<CalendarEvent> recurringInstances = getRecurringEventInstances(
-                                eventId, start, end, rRule, title, desc, location, url, isAllDay, hasAlarm
-                        );
-                        calendarEvents.addAll(recurringInstances);
-                    } else {
-                        // 非周期性事件直接添加
-                        CalendarEvent event = new CalendarEvent(
-                                eventId, title, desc, startDate, endDate, location, url, isAllDay, hasAlarm
-                        );
-                        calendarEvents.add(event);
-                    }
-                } while (cur.moveToNext());
-            } else {
-                Log.e("CursorError", "Cursor is empty");
-            }
-        } catch (Exception e) {
-            Log.e("XXX", e.getMessage());
-        } finally {
-            cur.close();
+    private static void throwIfCanceled(CancellationSignal signal) {
+        if (signal != null) {
+            signal.throwIfCanceled();
         }
+    }
+
+    private static long defaultQueryStart() {
+        return LocalDateTime.now().minusMonths(6)
+                .withHour(0).withMinute(0).withSecond(0)
+                .atZone(ZoneId.systemDefault())
+                .toInstant().toEpochMilli();
+    }
 
-        updateRemindersAndAttendees(calendarEvents);
-        return calendarEvents;
+    private static long defaultQueryEnd() {
+        return LocalDateTime.now().plusMonths(6)
+                .withHour(23).withMinute(59).withSecond(59)
+                .atZone(ZoneId.systemDefault())
+                .toInstant().toEpochMilli();
     }
 
     private CalendarEvent getEvent(String calendarId, String eventId) {
@@ -273,47 +1281,312 @@ public class CalendarOperations {
         return events.get(0);
     }
 
-    public void createUpdateEvent(String calendarId, CalendarEvent event) {
+    /**
+     * Inserts the event, or updates it when it has an id. An update only writes the columns
+     * whose value differs from the stored row and is skipped when none does.
+     *
+     * @return false if the provider rejected the write or no such event exists
+     */
+    public boolean createUpdateEvent(String calendarId, CalendarEvent event) {
         if (!hasPermissions()) {
             requestPermissions();
         }
 
-        ContentResolver cr = ctx.getContentResolver();
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            String eventId = event.getEventId() != null ? event.getEventId() : null;
+            if (eventId != null) {
+                CalendarEvent current = loadEventRow(calendarId, eventId);
+                if (current == null) {
+                    return false;
+                }
+                current.setTitle(event.getTitle());
+                current.setDescription(event.getDescription());
+                current.setStartDate(event.getStartDate());
+                current.setEndDate(event.getEndDate());
+                current.setAllDay(event.isAllDay());
+                current.setHasAlarm(event.isHasAlarm());
+                // Missing location and url have always meant "leave unchanged".
+                if (event.getLocation() != null) {
+                    current.setLocation(event.getLocation());
+                }
+                if (event.getUrl() != null) {
+                    current.setUrl(event.getUrl());
+                }
+                return updateDirtyFields(calendarId, current);
+            }
 
-        String currentTimeZone = java.util.Calendar.getInstance().getTimeZone().getDisplayName();
-        String eventId = event.getEventId() != null ? event.getEventId() : null;
-        ContentValues values = new ContentValues();
-        values.put(Events.DTSTART, event.getStartDate());
-        values.put(Events.DTEND, event.getEndDate());
-        values.put(Events.TITLE, event.getTitle());
-        values.put(Events.DESCRIPTION, event.getDescription());
-        values.put(Events.CALENDAR_ID, calendarId);
-        values.put(Events.EVENT_TIMEZONE, currentTimeZone);
-        values.put(Events.ALL_DAY, event.isAllDay());
-        values.put(Events.HAS_ALARM, event.isHasAlarm());
-        if (event.getLocation() != null) {
-            values.put(Events.EVENT_LOCATION, event.getLocation());
-        }
-        if (event.getUrl() != null) {
-            values.put(Events.CUSTOM_APP_URI, event.getUrl());
-        }
+            String currentTimeZone =
+                    java.util.Calendar.getInstance().getTimeZone().getDisplayName();
+            ContentValues values = new ContentValues();
+            values.put(Events.DTSTART, event.getStartDate());
+            values.put(Events.DTEND, event.getEndDate());
+            values.put(Events.TITLE, event.getTitle());
+            values.put(Events.DESCRIPTION, event.getDescription());
+            values.put(Events.CALENDAR_ID, calendarId);
+            values.put(Events.EVENT_TIMEZONE, currentTimeZone);
+            values.put(Events.ALL_DAY, event.isAllDay());
+            values.put(Events.HAS_ALARM, event.isHasAlarm());
+            if (event.getLocation() != null) {
+                values.put(Events.EVENT_LOCATION, event.getLocation());
+            }
+            if (event.getUrl() != null) {
+                values.put(Events.CUSTOM_APP_URI, event.getUrl());
+            }
 
-        try {
-            if (eventId == null) {
-                Uri uri = cr.insert(Events.CONTENT_URI, values);
+            try {
+                Uri uri = session.insert(Events.CONTENT_URI, values);
                 // get the event ID that is the last element in the Uri
                 eventId = Long.parseLong(uri.getLastPathSegment()) + "";
                 event.setEventId(eventId);
+            } catch (Exception e) {
+                Log.e("XXX", e.getMessage());
+                return false;
+            } finally {
+                changeMonitor.markChanged();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Applies the given fields to the stored event, as in {@link #createUpdateEvent}. Keys
+     * which are missing from the map are left unchanged.
+     *
+     * @param changes - Any of title, description, startDate, endDate, location, url, isAllDay
+     *                and hasAlarm
+     * @return false if the event doesn't exist or the write failed
+     * @throws IllegalArgumentException if the changes are invalid, see {@link #checkPatch}
+     */
+    boolean patchEvent(String calendarId, String eventId, Map<String, Object> changes) {
+        checkPatch(eventId, changes);
+        if (!hasPermissions()) {
+            requestPermissions();
+        }
+        CalendarEvent event = loadEventRow(calendarId, eventId);
+        if (event == null) {
+            return false;
+        }
+        applyPatch(event, changes);
+        // Like createUpdateEvent, a patch which changes nothing succeeds without a write.
+        return updateDirtyFields(calendarId, event);
+    }
+
+    /**
+     * Sets the fields of the patch on the event, marking those which change as dirty.
+     */
+    static void applyPatch(CalendarEvent event, Map<String, Object> changes) {
+        if (changes.containsKey("title")) {
+            event.setTitle((String) changes.get("title"));
+        }
+        if (changes.containsKey("description")) {
+            event.setDescription((String) changes.get("description"));
+        }
+        if (changes.containsKey("startDate")) {
+            event.setStartDate(((Number) changes.get("startDate")).longValue());
+        }
+        if (changes.containsKey("endDate")) {
+            event.setEndDate(((Number) changes.get("endDate")).longValue());
+        }
+        if (changes.containsKey("location")) {
+            event.setLocation((String) changes.get("location"));
+        }
+        if (changes.containsKey("url")) {
+            event.setUrl((String) changes.get("url"));
+        }
+        if (changes.containsKey("isAllDay")) {
+            event.setAllDay((Boolean) changes.get("isAllDay"));
+        }
+        if (changes.containsKey("hasAlarm")) {
+            event.setHasAlarm((Boolean) changes.get("hasAlarm"));
+        }
+    }
+
+    /**
+     * Checks the arguments of {@link #patchEvent}: every field has to hold a value of its type.
+     * As in Dart, where a null argument leaves the field unchanged, a patch can't clear a text.
+     *
+     * @throws IllegalArgumentException naming the first invalid argument
+     */
+    static void checkPatch(String eventId, Map<String, Object> changes) {
+        if (eventId == null) {
+            throw new IllegalArgumentException("eventId is required");
+        }
+        if (changes == null) {
+            throw new IllegalArgumentException("changes is required");
+        }
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            String field = change.getKey();
+            Object value = change.getValue();
+            boolean valid;
+            switch (field) {
+                case "title":
+                case "description":
+                case "location":
+                case "url":
+                    valid = value instanceof String;
+                    break;
+                case "startDate":
+                case "endDate":
+                    valid = value instanceof Number;
+                    break;
+                case "isAllDay":
+                case "hasAlarm":
+                    valid = value instanceof Boolean;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown field " + field);
+            }
+            if (!valid) {
+                throw new IllegalArgumentException("Invalid " + field + ": " + value);
+            }
+        }
+    }
+
+    /**
+     * Visits stored event rows, see {@link #forEachEventRow}.
+     */
+    interface RowVisitor {
+        /**
+         * @param row - Read from the row the cursor is positioned on
+         */
+        void visit(EventRow row, Cursor cur);
+    }
+
+    /**
+     * Reads the stored rows of the calendar's events among the given ones, including
+     * {@link EventFilter#STORED_COLUMNS}. Deleted events are skipped.
+     */
+    void forEachEventRow(String calendarId, Collection<String> eventIds,
+                         CancellationSignal signal, RowVisitor visitor) {
+        if (eventIds.isEmpty()) {
+            return;
+        }
+        String[] projection = Arrays.copyOf(EVENT_PROJECTION,
+                EVENT_PROJECTION.length + EventFilter.STORED_COLUMNS.length);
+        System.arraycopy(EventFilter.STORED_COLUMNS, 0, projection, EVENT_PROJECTION.length,
+                EventFilter.STORED_COLUMNS.length);
+        StringBuilder selection = new StringBuilder(allEventsSelection(calendarId))
+                .append(" AND ").append(Events._ID).append(" IN (");
+        for (int i = 0; i < eventIds.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(")");
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            Cursor cur = session.query(Events.CONTENT_URI, projection, selection.toString(),
+                    eventIds.toArray(new String[0]), null, signal);
+            if (cur == null) {
+                Log.e("CursorError", "Cursor is null");
+                return;
+            }
+            try {
+                EventRow row = new EventRow(cur);
+                if (!row.hasRequiredColumns()) {
+                    return;
+                }
+                while (cur.moveToNext()) {
+                    row.read();
+                    visitor.visit(row, cur);
+                }
+            } finally {
+                cur.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the stored columns of the event, without reminders or attendees.
+     *
+     * @return null if there is no such event
+     */
+    private CalendarEvent loadEventRow(String calendarId, String eventId) {
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            Cursor cur = queryEvents(session,
+                    Events._ID + " = ? AND " + Events.CALENDAR_ID + " = ?",
+                    new String[]{eventId, calendarId}, null);
+            if (cur == null) {
+                return null;
+            }
+            try {
+                EventRow row = new EventRow(cur);
+                if (!row.hasRequiredColumns() || !cur.moveToNext()) {
+                    return null;
+                }
+                row.read();
+                return row.toEvent();
+            } finally {
+                cur.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the dirty fields of the event, leaving every other column (and the row's sync
+     * state for them) alone. Nothing is written when no field is dirty.
+     *
+     * @return false if the provider rejected the write
+     */
+    private boolean updateDirtyFields(String calendarId, CalendarEvent event) {
+        if (event.getDirtyFields() == 0) {
+            return true;
+        }
+        ContentValues values = new ContentValues();
+        for (Map.Entry<String, Object> column : dirtyColumns(event).entrySet()) {
+            Object value = column.getValue();
+            if (value instanceof Long) {
+                values.put(column.getKey(), (Long) value);
+            } else if (value instanceof Boolean) {
+                values.put(column.getKey(), (Boolean) value);
             } else {
-                String selection =
-                        Events.CALENDAR_ID + " = " + calendarId + " AND " + CalendarContract.Instances._ID
-                                + " = " + eventId;
-                int updCount = cr.update(Events.CONTENT_URI, values, selection,
-                        null);
+                values.put(column.getKey(), (String) value);
+            }
+        }
+
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            int updCount = session.update(Events.CONTENT_URI, values,
+                    Events._ID + " = ? AND " + Events.CALENDAR_ID + " = ?",
+                    new String[]{event.getEventId(), calendarId});
+            if (updCount > 0) {
+                event.clearDirtyFields();
             }
+            return updCount > 0;
         } catch (Exception e) {
             Log.e("XXX", e.getMessage());
+            return false;
+        } finally {
+            changeMonitor.markChanged();
+        }
+    }
+
+    /**
+     * Returns the Events columns of the event's dirty fields, with their values.
+     */
+    static Map<String, Object> dirtyColumns(CalendarEvent event) {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        if (event.isDirty(CalendarEvent.FIELD_TITLE)) {
+            columns.put(Events.TITLE, event.getTitle());
+        }
+        if (event.isDirty(CalendarEvent.FIELD_DESCRIPTION)) {
+            columns.put(Events.DESCRIPTION, event.getDescription());
+        }
+        if (event.isDirty(CalendarEvent.FIELD_START_DATE)) {
+            columns.put(Events.DTSTART, event.getStartDate());
+        }
+        if (event.isDirty(CalendarEvent.FIELD_END_DATE)) {
+            columns.put(Events.DTEND, event.getEndDate());
+        }
+        if (event.isDirty(CalendarEvent.FIELD_LOCATION)) {
+            columns.put(Events.EVENT_LOCATION, event.getLocation());
         }
+        if (event.isDirty(CalendarEvent.FIELD_URL)) {
+            columns.put(Events.CUSTOM_APP_URI, event.getUrl());
+        }
+        if (event.isDirty(CalendarEvent.FIELD_ALL_DAY)) {
+            columns.put(Events.ALL_DAY, event.isAllDay());
+        }
+        if (event.isDirty(CalendarEvent.FIELD_HAS_ALARM)) {
+            columns.put(Events.HAS_ALARM, event.isHasAlarm());
+        }
+        return columns;
     }
 
     public boolean deleteEvent(String calendarId, String eventId) {
@@ -325,90 +1598,202 @@ public class CalendarOperations {
                 Events.CALENDAR_ID + " = " + calendarId + " AND " + CalendarContract.Instances._ID
                         + " = " + eventId;
 
-        int updCount = ctx.getContentResolver().delete(uri, selection, null);
-        return updCount != 0;
-    }
-
-    private void updateRemindersAndAttendees(ArrayList<CalendarEvent> events) {
-        for (CalendarEvent event : events) {
-            executor.submit(() -> {
-                getReminders(event);
-                List<CalendarEvent. Attendee> attendees = getAttendees(event.getEventId());
-                new Handler(Looper.getMainLooper()).post(() -> {
-                    event.setAttendees(attendees);
-                });
-            });
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            return session.delete(uri, selection, null) > 0;
+        } finally {
+            changeMonitor.markChanged();
         }
     }
 
-    public List<CalendarEvent.Attendee> getAttendees(String eventId) {
-        if (!hasPermissions()) {
-            requestPermissions();
+    /**
+     * Loads the reminder and attendees of every event on the enrichment pool and waits for them,
+     * so the events are complete before they are handed back for serialization.
+     * Occurrences of a recurring event share their series' event id and are enriched only once.
+     *
+     * @param events - Events to enrich in place
+     * @param signal - Aborts the enrichment once cancelled, may be null
+     */
+    private void updateRemindersAndAttendees(List<CalendarEvent> events,
+                                             CancellationSignal signal) {
+        if (events.isEmpty()) {
+            return;
         }
-        ContentResolver cr = ctx.getContentResolver();
-
-        String[] mProjection =
-                {
-                        CalendarContract.Attendees.EVENT_ID,
-                        CalendarContract.Attendees._ID,
-                        CalendarContract.Attendees.ATTENDEE_NAME,
-                        CalendarContract.Attendees.ATTENDEE_EMAIL,
-                        CalendarContract.Attendees.ATTENDEE_RELATIONSHIP,
-                        CalendarContract.Attendees.IS_ORGANIZER,
-                };
 
-        Uri uri = CalendarContract.Attendees.CONTENT_URI;
-        String selection = CalendarContract.Attendees.EVENT_ID + " = " + eventId;
+        Set<String> eventIds = new LinkedHashSet<>();
+        for (CalendarEvent event : events) {
+            eventIds.add(event.getEventId());
+        }
 
-        Cursor cur = cr.query(uri, mProjection, selection, null, null);
-        int cursorSize = cur.getCount();
+        // Results are applied here, on the calling thread, so a timed out task can never
+        // touch an event after it has been returned.
+        Map<String, Enrichment> enrichments = loadEnrichment(eventIds, false, signal);
+        for (CalendarEvent event : events) {
+            Enrichment enrichment = enrichments.get(event.getEventId());
+            if (enrichment != null) {
+                event.setReminder(enrichment.reminder);
+                event.setAttendees(enrichment.attendees);
+            }
+            event.setEnrichmentIncomplete(enrichment == null);
+        }
+    }
 
-        Set<CalendarEvent.Attendee> attendees = new HashSet<>();
+    /**
+     * Loads the reminder and attendees of the given events on the enrichment pool and waits for
+     * them. The deadline
+     * is {@link #ENRICHMENT_TIMEOUT_MS} plus {@link #ENRICHMENT_TASK_MS} for every task each
+     * pool thread runs, so it grows with the read. Events which timed out or failed are missing
+     * from the returned map and are reported as incomplete to Dart.
+     *
+     * @param background - Uses the single threaded background pool rather than the shared one
+     * @throws OperationCanceledException if the signal was cancelled, pending tasks are dropped
+     */
+    private Map<String, Enrichment> loadEnrichment(Collection<String> eventIds,
+                                                   boolean background,
+                                                   final CancellationSignal signal) {
+        Map<String, Enrichment> enrichments = new HashMap<>();
+        if (eventIds.isEmpty()) {
+            return enrichments;
+        }
 
-        CalendarEvent.Attendee organiser = null;
-        try {
-            while (cur.moveToNext()) {
-                String attendeeId =
-                        cur.getLong(cur.getColumnIndex(CalendarContract.Attendees._ID)) + "";
-                String name =
-                        cur.getString(cur.getColumnIndex(CalendarContract.Attendees.ATTENDEE_NAME));
-                String emailAddress =
-                        cur.getString(cur.getColumnIndex(CalendarContract.Attendees.ATTENDEE_EMAIL));
-                int relationship = cur
-                        .getInt(cur.getColumnIndex(CalendarContract.Attendees.ATTENDEE_RELATIONSHIP));
-
-                boolean isOrganiser =
-                        relationship == CalendarContract.Attendees.RELATIONSHIP_ORGANIZER;
-
-                if (name.isEmpty() && !emailAddress.isEmpty()) {
-                    name = capitalize(emailAddress.replaceAll("((@.*)|[^a-zA-Z])+", " ").trim());
+        ExecutorService executor = background ? backgroundEnrichmentExecutor : enrichmentExecutor;
+        int threads = background ? 1 : ENRICHMENT_THREADS;
+        List<String> ids = new ArrayList<>(eventIds);
+        List<Future<Enrichment>> futures = new ArrayList<>(ids.size());
+        for (final String eventId : ids) {
+            futures.add(executor.submit(() -> {
+                throwIfCanceled(signal);
+                // Pool threads have no session of their own, both lookups share this one.
+                try (ProviderSession session = ProviderSession.open(ctx)) {
+                    Reminder reminder = getReminder(eventId, signal);
+                    return new Enrichment(reminder, getAttendees(eventId, signal));
                 }
-                CalendarEvent.Attendee attendee = new CalendarEvent.Attendee(attendeeId, name,
-                        emailAddress, isOrganiser);
+            }));
+        }
 
-                if (isOrganiser) {
-                    organiser = attendee;
-                } else {
-                    attendees.add(attendee);
+        long rounds = (ids.size() + threads - 1) / threads;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(
+                ENRICHMENT_TIMEOUT_MS + rounds * ENRICHMENT_TASK_MS);
+        int timedOut = 0;
+        int failed = 0;
+        Throwable failure = null;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                throwIfCanceled(signal);
+                try {
+                    long remaining = Math.max(0, deadline - System.nanoTime());
+                    enrichments.put(ids.get(i),
+                            futures.get(i).get(remaining, TimeUnit.NANOSECONDS));
+                } catch (TimeoutException e) {
+                    timedOut++;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof OperationCanceledException) {
+                        throw (OperationCanceledException) e.getCause();
+                    }
+                    failed++;
+                    failure = e.getCause();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
                 }
             }
-        } catch (Exception e) {
-            Log.e("XXX", e.getMessage());
         } finally {
-            cur.close();
+            // Drops whatever is still queued or running once the deadline or a cancel hit.
+            for (Future<Enrichment> future : futures) {
+                future.cancel(true);
+            }
+        }
+        if (enrichments.size() < ids.size()) {
+            // One line per read, a slow provider would otherwise flood the log.
+            Log.w("CalendarOperations", "Enrichment incomplete for "
+                    + (ids.size() - enrichments.size()) + " of " + ids.size() + " events ("
+                    + timedOut + " timed out, " + failed + " failed)", failure);
+        }
+        return enrichments;
+    }
+
+    private static final class Enrichment {
+        final Reminder reminder;
+        final List<CalendarEvent.Attendee> attendees;
+
+        Enrichment(Reminder reminder, List<CalendarEvent.Attendee> attendees) {
+            this.reminder = reminder;
+            this.attendees = attendees;
         }
-        ArrayList<CalendarEvent.Attendee> attendeeList = new ArrayList<>(attendees);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            Collections.sort(attendeeList, Comparator.comparing(CalendarEvent.Attendee::getEmailAddress));
+    }
+
+    public List<CalendarEvent.Attendee> getAttendees(String eventId) {
+        return getAttendees(eventId, null);
+    }
+
+    private List<CalendarEvent.Attendee> getAttendees(String eventId, CancellationSignal signal) {
+        if (!hasPermissions()) {
+            requestPermissions();
         }
-        if (organiser != null && !attendeeList.isEmpty())
-            attendeeList.add(0, organiser);
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            String[] mProjection =
+                    {
+                            CalendarContract.Attendees.EVENT_ID,
+                            CalendarContract.Attendees._ID,
+                            CalendarContract.Attendees.ATTENDEE_NAME,
+                            CalendarContract.Attendees.ATTENDEE_EMAIL,
+                            CalendarContract.Attendees.ATTENDEE_RELATIONSHIP,
+                            CalendarContract.Attendees.IS_ORGANIZER,
+                    };
+
+            Uri uri = CalendarContract.Attendees.CONTENT_URI;
+            String selection = CalendarContract.Attendees.EVENT_ID + " = " + eventId;
+
+            Cursor cur = session.query(uri, mProjection, selection, null, null, signal);
+            int cursorSize = cur.getCount();
+
+            Set<CalendarEvent.Attendee> attendees = new HashSet<>();
+
+            CalendarEvent.Attendee organiser = null;
+            try {
+                while (cur.moveToNext()) {
+                    String attendeeId =
+                            cur.getLong(cur.getColumnIndex(CalendarContract.Attendees._ID)) + "";
+                    String name =
+                            cur.getString(cur.getColumnIndex(CalendarContract.Attendees.ATTENDEE_NAME));
+                    String emailAddress =
+                            cur.getString(cur.getColumnIndex(CalendarContract.Attendees.ATTENDEE_EMAIL));
+                    int relationship = cur
+                            .getInt(cur.getColumnIndex(CalendarContract.Attendees.ATTENDEE_RELATIONSHIP));
+
+                    boolean isOrganiser =
+                            relationship == CalendarContract.Attendees.RELATIONSHIP_ORGANIZER;
+
+                    if (name.isEmpty() && !emailAddress.isEmpty()) {
+                        name = capitalize(
+                                emailAddress.replaceAll("((@.*)|[^a-zA-Z])+", " ").trim());
+                    }
+                    CalendarEvent.Attendee attendee = new CalendarEvent.Attendee(attendeeId, name,
+                            emailAddress, isOrganiser);
 
-        if (cursorSize != attendeeList.size()) {
-            deleteAllAttendees(eventId);
-            addAttendees(eventId, attendeeList);
+                    if (isOrganiser) {
+                        organiser = attendee;
+                    } else {
+                        attendees.add(attendee);
+                    }
+                }
+            } catch (Exception e) {
+                Log.e("XXX", e.getMessage());
+            } finally {
+                cur.close();
+            }
+            ArrayList<CalendarEvent.Attendee> attendeeList = new ArrayList<>(attendees);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                Collections.sort(attendeeList, Comparator.comparing(CalendarEvent.Attendee::getEmailAddress));
+            }
+            if (organiser != null && !attendeeList.isEmpty())
+                attendeeList.add(0, organiser);
+
+            if (cursorSize != attendeeList.size()) {
+                deleteAllAttendees(eventId);
+                addAttendees(eventId, attendeeList);
+            }
+            return attendeeList;
         }
-        return attendeeList;
     }
 
     private String capitalize(final String line) {
@@ -424,16 +1809,17 @@ public class CalendarOperations {
             return;
         }
 
-        ContentResolver cr = ctx.getContentResolver();
         ContentValues[] valuesArray = new ContentValues[attendees.size()];
 
         for (int i = 0, attendeesSize = attendees.size(); i < attendeesSize; i++) {
             ContentValues values = getContentValues(eventId, attendees, i);
             valuesArray[i] = values;
         }
-        new Handler(Looper.getMainLooper()).post(() -> {
-            cr.bulkInsert(CalendarContract.Attendees.CONTENT_URI, valuesArray);
-        });
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            session.bulkInsert(CalendarContract.Attendees.CONTENT_URI, valuesArray);
+        } finally {
+            changeMonitor.markChanged();
+        }
     }
 
     private static ContentValues getContentValues(String eventId, List<CalendarEvent.Attendee> attendees, int i) {
@@ -460,7 +1846,11 @@ public class CalendarOperations {
                         + " AND " + CalendarContract.Attendees.ATTENDEE_EMAIL
                         + " = '" + attendee.getEmailAddress() + "'";
 
-        return ctx.getContentResolver().delete(uri, selection, null);
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            return session.delete(uri, selection, null);
+        } finally {
+            changeMonitor.markChanged();
+        }
     }
 
     private void deleteAllAttendees(String eventId) {
@@ -469,56 +1859,64 @@ public class CalendarOperations {
         }
         Uri uri = CalendarContract.Attendees.CONTENT_URI;
         String selection = CalendarContract.Attendees.EVENT_ID + " = " + eventId;
-        ctx.getContentResolver().delete(uri, selection, null);
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            session.delete(uri, selection, null);
+        } finally {
+            changeMonitor.markChanged();
+        }
     }
 
-    private void getReminders(CalendarEvent event) {
-        String eventId = event.getEventId();
+    /**
+     * Returns the reminder of the given event. When the event has several reminders the last
+     * one returned by the provider is used.
+     */
+    private Reminder getReminder(String eventId, CancellationSignal signal) {
         if (!hasPermissions()) {
             requestPermissions();
         }
-        ContentResolver cr = ctx.getContentResolver();
-
-        String[] mProjection =
-                {
-                        CalendarContract.Reminders.EVENT_ID,
-                        CalendarContract.Reminders.METHOD,
-                        CalendarContract.Reminders.MINUTES,
-                };
-
-        Uri uri = CalendarContract.Reminders.CONTENT_URI;
-        String selection = CalendarContract.Reminders.EVENT_ID + " = " + eventId;
-//        String[] selectionArgs = new String[]{"2"};
-
-        Cursor cur = cr.query(uri, mProjection, selection, null, null);
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            String[] mProjection =
+                    {
+                            CalendarContract.Reminders.EVENT_ID,
+                            CalendarContract.Reminders.METHOD,
+                            CalendarContract.Reminders.MINUTES,
+                    };
+
+            Uri uri = CalendarContract.Reminders.CONTENT_URI;
+            String selection = CalendarContract.Reminders.EVENT_ID + " = " + eventId;
+
+            Cursor cur = session.query(uri, mProjection, selection, null, null, signal);
+            if (cur == null) {
+                return null;
+            }
 
-        try {
-            while (cur.moveToNext()) {
-                long minutes = cur.getLong(cur.getColumnIndex(CalendarContract.Reminders.MINUTES));
-                Reminder reminder = new CalendarEvent.Reminder(minutes);
-                new Handler(Looper.getMainLooper()).post(() -> {
-                    event.setReminder(reminder);
-                });
+            Reminder reminder = null;
+            try {
+                int minutesIndex = cur.getColumnIndex(CalendarContract.Reminders.MINUTES);
+                while (cur.moveToNext()) {
+                    reminder = new CalendarEvent.Reminder(cur.getLong(minutesIndex));
+                }
+            } catch (Exception e) {
+                Log.e("XXX", e.getMessage());
+            } finally {
+                cur.close();
             }
-        } catch (Exception e) {
-            Log.e("XXX", e.getMessage());
-        } finally {
-            cur.close();
+            return reminder;
         }
     }
 
-    private List<CalendarEvent> getRecurringEventInstances(
-            String eventId, long queryStart, long queryEnd, String rRuleStr,
-            String title, String desc, String location, String url,
-            boolean isAllDay, boolean hasAlarm) {
-        List<CalendarEvent> events = new ArrayList<>();
+    /**
+     * Returns the occurrences of the given recurring event inside the queried window.
+     *
+     * @param seriesEvent - Payload shared by every occurrence
+     * @return The series, or null when no occurrence falls in the window
+     */
+    private EventSeries getRecurringEventInstances(
+            CalendarEvent seriesEvent, long queryStart, long queryEnd, CancellationSignal signal) {
         String[] projection = {
                 Instances.EVENT_ID,
-                Instances.TITLE,
                 Instances.BEGIN,
                 Instances.END,
-                Instances.EVENT_LOCATION,
-                Instances.ALL_DAY
         };
         Uri uri = Instances.CONTENT_URI
                 .buildUpon()
@@ -530,41 +1928,46 @@ public class CalendarOperations {
         String selection = Instances.EVENT_ID + " = ? AND "
                 + Events.DELETED + " != 1";
         String[] selectionArgs = new String[] {
-                eventId
+                seriesEvent.getEventId()
         };
 
-        ContentResolver contentResolver = ctx.getContentResolver();
-
-        Cursor cur = contentResolver.query(
-                uri,  // 使用修正后的URI
-                projection,
-                selection,
-                selectionArgs,
-                Instances.BEGIN + " ASC"
-        );
-
-        if (cur != null) {
-            while (cur.moveToNext()) {
-                int eventIdIndex = cur.getColumnIndex(Instances.EVENT_ID);
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            Cursor cur = session.query(
+                    uri,  // 使用修正后的URI
+                    projection,
+                    selection,
+                    selectionArgs,
+                    Instances.BEGIN + " ASC",
+                    signal
+            );
+
+            if (cur == null) {
+                return null;
+            }
+            try {
+                int count = cur.getCount();
+                if (count <= 0) {
+                    return null;
+                }
                 int beginIndex = cur.getColumnIndex(Instances.BEGIN);
                 int endIndex = cur.getColumnIndex(Instances.END);
-
-                    long instanceStart = cur.getLong(cur.getColumnIndex(Instances.BEGIN));
-                    long instanceEnd = cur.getLong(cur.getColumnIndex(Instances.END));
-//                    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-//                    sdf.setTimeZone(TimeZone.getTimeZone(ZoneId.of("Asia/Shanghai")));
-//                    String startStr = sdf.format(new Date(instanceStart));
-//                    String endStr = sdf.format(new Date(instanceEnd));
-//                    Log.d("CalendarDebug", "eventId: " + eventId + " title: " + title + " startDate: " + startStr + " endDate: " + endStr);
-                    CalendarEvent event = new CalendarEvent(
-                            eventId, title, desc, instanceStart, instanceEnd, location, url, isAllDay, hasAlarm
-                    );
-                    events.add(event);
-
+                long[] begins = new long[count];
+                long[] ends = new long[count];
+                int size = 0;
+                while (size < count && cur.moveToNext()) {
+                    begins[size] = cur.getLong(beginIndex);
+                    ends[size] = cur.getLong(endIndex);
+                    size++;
+                }
+                if (size < count) {
+                    begins = Arrays.copyOf(begins, size);
+                    ends = Arrays.copyOf(ends, size);
+                }
+                return new EventSeries(seriesEvent, begins, ends);
+            } finally {
+                cur.close();
             }
-            cur.close();
         }
-        return events;
     }
 
     public void addReminder(String calendarId, String eventId, long minutes) {
@@ -572,35 +1975,41 @@ public class CalendarOperations {
             requestPermissions();
         }
 
-        CalendarEvent event = getEvent(calendarId, eventId);
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            CalendarEvent event = getEvent(calendarId, eventId);
 
-        ContentResolver cr = ctx.getContentResolver();
-        ContentValues values = new ContentValues();
+            ContentValues values = new ContentValues();
 
-        values.put(CalendarContract.Reminders.EVENT_ID, event.getEventId());
-        values.put(CalendarContract.Reminders.MINUTES, minutes);
-        values.put(CalendarContract.Reminders.METHOD, CalendarContract.Reminders.METHOD_ALARM);
+            values.put(CalendarContract.Reminders.EVENT_ID, event.getEventId());
+            values.put(CalendarContract.Reminders.MINUTES, minutes);
+            values.put(CalendarContract.Reminders.METHOD, CalendarContract.Reminders.METHOD_ALARM);
 
-        cr.insert(CalendarContract.Reminders.CONTENT_URI, values);
+            session.insert(CalendarContract.Reminders.CONTENT_URI, values);
 
-        event.setHasAlarm(true);
+            event.setHasAlarm(true);
+        } finally {
+            changeMonitor.markChanged();
+        }
     }
 
     public int updateReminder(String calendarId, String eventId, long minutes) {
         if (!hasPermissions()) {
             requestPermissions();
         }
-        CalendarEvent event = getEvent(calendarId, eventId);
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            CalendarEvent event = getEvent(calendarId, eventId);
 
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(CalendarContract.Reminders.MINUTES, minutes);
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(CalendarContract.Reminders.MINUTES, minutes);
 
-        Uri uri = CalendarContract.Reminders.CONTENT_URI;
+            Uri uri = CalendarContract.Reminders.CONTENT_URI;
 
-        String selection = CalendarContract.Reminders.EVENT_ID + " = " + event.getEventId();
-        int updCount = ctx.getContentResolver()
-                .update(uri, contentValues, selection, null);
-        return updCount;
+            String selection = CalendarContract.Reminders.EVENT_ID + " = " + event.getEventId();
+            int updCount = session.update(uri, contentValues, selection, null);
+            return updCount;
+        } finally {
+            changeMonitor.markChanged();
+        }
     }
 
     public int deleteReminder(String eventId) {
@@ -611,8 +2020,11 @@ public class CalendarOperations {
         Uri uri = CalendarContract.Reminders.CONTENT_URI;
         String selection = CalendarContract.Reminders.EVENT_ID + " = " + eventId;
 
-        int updCount = ctx.getContentResolver().delete(uri, selection, null);
-        return updCount;
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            return session.delete(uri, selection, null);
+        } finally {
+            changeMonitor.markChanged();
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,221 @@
+package com.fantastic.manage_calendar_events;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.fantastic.manage_calendar_events.models.CalendarEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps Dart up to date with date windows it subscribed to. Provider notifications are
+ * debounced, so a sync adapter storm results in a single re-query of each subscribed window;
+ * only the events which were added, changed or removed since the last push are sent.
+ */
+final class ChangeWatcher implements CalendarChangeMonitor.Listener {
+
+    private static final long DEBOUNCE_MS = 500;
+    // A steady stream of notifications still gets flushed this often.
+    private static final long MAX_DELAY_MS = 3000;
+
+    private static final class Subscription {
+        final String id;
+        final String calendarId;
+        final long startDate;
+        final long endDate;
+        // Occurrence key -> content fingerprint, as last pushed. Only touched by the refresh
+        // holding the running flag.
+        Map<String, Long> fingerprints;
+        // Guarded by this. Refreshes of a subscription never overlap: one requested while
+        // another runs is folded into a single rerun once it is done.
+        boolean running;
+        boolean rerun;
+        // Set on the main thread once unwatched, a refresh still queued then pushes nothing.
+        volatile boolean cancelled;
+
+        Subscription(String id, String calendarId, long startDate, long endDate) {
+            this.id = id;
+            this.calendarId = calendarId;
+            this.startDate = startDate;
+            this.endDate = endDate;
+        }
+    }
+
+    private final CalendarOperations operations;
+    private final Executor executor;
+    private final Handler mainHandler;
+    private final EventStream eventStream;
+
+    // Only touched on the main thread.
+    private final Map<String, Subscription> subscriptions = new HashMap<>();
+    private long firstPendingChange = -1;
+
+    private final Runnable flush = this::flush;
+
+    ChangeWatcher(CalendarOperations operations, Executor executor, Handler mainHandler,
+                  EventStream eventStream) {
+        this.operations = operations;
+        this.executor = executor;
+        this.mainHandler = mainHandler;
+        this.eventStream = eventStream;
+    }
+
+    /**
+     * Starts watching the window. Called on the main thread.
+     */
+    void watch(String subscriptionId, String calendarId, long startDate, long endDate) {
+        final Subscription subscription =
+                new Subscription(subscriptionId, calendarId, startDate, endDate);
+        if (subscriptions.isEmpty()) {
+            operations.addChangeListener(this);
+        }
+        Subscription previous = subscriptions.put(subscriptionId, subscription);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+        // The first read only records the baseline the changes are computed against.
+        scheduleRefresh(subscription);
+    }
+
+    /**
+     * Called on the main thread.
+     */
+    void unwatch(String subscriptionId) {
+        Subscription subscription = subscriptions.remove(subscriptionId);
+        if (subscription == null) {
+            return;
+        }
+        subscription.cancelled = true;
+        if (subscriptions.isEmpty()) {
+            operations.removeChangeListener(this);
+            mainHandler.removeCallbacks(flush);
+            firstPendingChange = -1;
+        }
+    }
+
+    /**
+     * Drops every subscription. Called on the main thread, it cancels the pending flush right
+     * away so none can reach the executor once the engine shut it down.
+     */
+    void clear() {
+        for (Subscription subscription : subscriptions.values()) {
+            subscription.cancelled = true;
+        }
+        subscriptions.clear();
+        operations.removeChangeListener(this);
+        mainHandler.removeCallbacks(flush);
+        firstPendingChange = -1;
+    }
+
+    @Override
+    public void onCalendarChanged() {
+        mainHandler.post(() -> {
+            if (subscriptions.isEmpty()) {
+                return;
+            }
+            long now = SystemClock.uptimeMillis();
+            if (firstPendingChange < 0) {
+                firstPendingChange = now;
+            }
+            long delay = Math.min(DEBOUNCE_MS, firstPendingChange + MAX_DELAY_MS - now);
+            mainHandler.removeCallbacks(flush);
+            mainHandler.postDelayed(flush, Math.max(0, delay));
+        });
+    }
+
+    private void flush() {
+        firstPendingChange = -1;
+        for (Subscription subscription : subscriptions.values()) {
+            scheduleRefresh(subscription);
+        }
+    }
+
+    private void scheduleRefresh(final Subscription subscription) {
+        synchronized (subscription) {
+            if (subscription.running) {
+                subscription.rerun = true;
+                return;
+            }
+            subscription.running = true;
+        }
+        executor.execute(() -> {
+            while (true) {
+                refresh(subscription);
+                synchronized (subscription) {
+                    if (!subscription.rerun) {
+                        subscription.running = false;
+                        return;
+                    }
+                    subscription.rerun = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Re-reads the window and pushes what changed since the previous refresh. The first one
+     * only records the baseline.
+     */
+    private void refresh(final Subscription subscription) {
+        if (subscription.cancelled) {
+            return;
+        }
+        List<CalendarEvent> events;
+        try {
+            events = operations.getEventsByDateRange(subscription.calendarId,
+                    subscription.startDate, subscription.endDate);
+        } catch (Exception e) {
+            Log.w("ChangeWatcher", "Refresh of " + subscription.id + " failed", e);
+            return;
+        }
+
+        Map<String, Long> fingerprints = new HashMap<>(events.size() * 2);
+        List<CalendarEvent> changed = new ArrayList<>();
+        for (CalendarEvent event : events) {
+            String key = event.getEventId() + ":" + event.getStartDate();
+            long fingerprint = Fingerprints.of(CalendarJsonWriter.events(
+                    Collections.singletonList(event)));
+            fingerprints.put(key, fingerprint);
+            Long previous = subscription.fingerprints != null
+                    ? subscription.fingerprints.get(key) : null;
+            if (previous == null || previous != fingerprint) {
+                changed.add(event);
+            }
+        }
+        List<Map<String, Object>> removed = new ArrayList<>();
+        if (subscription.fingerprints != null) {
+            for (String key : subscription.fingerprints.keySet()) {
+                if (!fingerprints.containsKey(key)) {
+                    int separator = key.lastIndexOf(':');
+                    Map<String, Object> occurrence = new HashMap<>();
+                    occurrence.put("eventId", key.substring(0, separator));
+                    occurrence.put("startDate", Long.parseLong(key.substring(separator + 1)));
+                    removed.add(occurrence);
+                }
+            }
+        }
+        boolean hadBaseline = subscription.fingerprints != null;
+        subscription.fingerprints = fingerprints;
+
+        if (!hadBaseline || subscription.cancelled || (changed.isEmpty() && removed.isEmpty())) {
+            return;
+        }
+        final Map<String, Object> event = new HashMap<>();
+        event.put("type", "changes");
+        event.put("subscriptionId", subscription.id);
+        event.put("changed", CalendarJsonWriter.events(changed));
+        event.put("removed", removed);
+        // Checked again on the main thread, where unwatch runs, so nothing is pushed after it.
+        mainHandler.post(() -> {
+            if (!subscription.cancelled) {
+                eventStream.send(event);
+            }
+        });
+    }
+}
@@ -0,0 +1,96 @@
+package com.fantastic.manage_calendar_events;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Groups event occurrences by a 64-bit fingerprint of their content (normalized title, start,
+ * end, location and all-day flag), which is what the same event synced through several
+ * accounts or adapters has in common. Only the fingerprints are indexed; occurrences are kept
+ * for the fingerprints seen more than once.
+ */
+final class DuplicateIndex {
+
+    static final class Occurrence {
+        final String eventId;
+        final String calendarId;
+        final String title;
+        final long startDate;
+        final long endDate;
+
+        Occurrence(String eventId, String calendarId, String title, long startDate,
+                   long endDate) {
+            this.eventId = eventId;
+            this.calendarId = calendarId;
+            this.title = title;
+            this.startDate = startDate;
+            this.endDate = endDate;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("eventId", eventId);
+            map.put("calendarId", calendarId);
+            map.put("title", title);
+            map.put("startDate", startDate);
+            map.put("endDate", endDate);
+            return map;
+        }
+    }
+
+    // Fingerprint -> first occurrence, or the list of all of them once it repeats.
+    private final Map<Long, Object> index = new HashMap<>();
+    private final List<List<Occurrence>> clusters = new ArrayList<>();
+
+    static long fingerprint(String title, long startDate, long endDate, String location,
+                            boolean isAllDay) {
+        long hash = Fingerprints.add(Fingerprints.SEED, normalize(title));
+        hash = Fingerprints.add(hash, startDate);
+        hash = Fingerprints.add(hash, endDate);
+        hash = Fingerprints.add(hash, normalize(location));
+        return Fingerprints.add(hash, isAllDay ? 1 : 0);
+    }
+
+    // Adapters disagree on case and whitespace, and on empty versus missing values.
+    private static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Indexes the occurrence.
+     *
+     * @return false if an occurrence with the same fingerprint was added before
+     */
+    @SuppressWarnings("unchecked")
+    boolean add(long fingerprint, Occurrence occurrence) {
+        Object current = index.get(fingerprint);
+        if (current == null) {
+            index.put(fingerprint, occurrence);
+            return true;
+        }
+        if (current instanceof Occurrence) {
+            List<Occurrence> cluster = new ArrayList<>(2);
+            cluster.add((Occurrence) current);
+            cluster.add(occurrence);
+            index.put(fingerprint, cluster);
+            clusters.add(cluster);
+        } else {
+            ((List<Occurrence>) current).add(occurrence);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the groups of two or more occurrences sharing a fingerprint, in the order they
+     * were found.
+     */
+    List<List<Occurrence>> getClusters() {
+        return clusters;
+    }
+}
@@ -0,0 +1,199 @@
+package com.fantastic.manage_calendar_events;
+
+import android.database.Cursor;
+import android.provider.CalendarContract.Attendees;
+import android.provider.CalendarContract.Events;
+
+import com.fantastic.manage_calendar_events.models.CalendarEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Structured event filter sent by Dart, compiled into a provider selection with bound
+ * arguments so that excluded rows are never read, enriched or serialized. The columns exist in
+ * both the Events and the Instances tables.
+ *
+ * Every entry of the map is optional: {@code status}, {@code selfAttendeeStatus} and
+ * {@code availability} list the accepted values of their column, {@code isAllDay} and
+ * {@code hasAlarm} the required flag, {@code titlePrefix} a case-insensitive title prefix and
+ * {@code organizer} the organizer's email address.
+ */
+final class EventFilter {
+
+    /**
+     * The filtered columns an event update leaves unchanged, to read along with the row for
+     * {@link #accepts}.
+     */
+    static final String[] STORED_COLUMNS = {
+            Events.STATUS,
+            Events.SELF_ATTENDEE_STATUS,
+            Events.AVAILABILITY,
+            Events.ORGANIZER,
+    };
+
+    private final String selection;
+    private final String[] args;
+    private final String key;
+    private final Map<String, Object> map;
+
+    private EventFilter(String selection, String[] args, String key, Map<String, Object> map) {
+        this.selection = selection;
+        this.args = args;
+        this.key = key;
+        this.map = map;
+    }
+
+    /**
+     * @return null when the map doesn't filter anything
+     */
+    @SuppressWarnings("unchecked")
+    static EventFilter fromMap(Map<String, Object> map) {
+        if (map == null || map.isEmpty()) {
+            return null;
+        }
+        List<String> clauses = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        // Rows written without these columns hold null, which the provider reads as the default.
+        in(clauses, args, Events.STATUS, (List<Number>) map.get("status"),
+                Events.STATUS_CONFIRMED);
+        in(clauses, args, Events.SELF_ATTENDEE_STATUS,
+                (List<Number>) map.get("selfAttendeeStatus"), Attendees.ATTENDEE_STATUS_NONE);
+        in(clauses, args, Events.AVAILABILITY, (List<Number>) map.get("availability"),
+                Events.AVAILABILITY_BUSY);
+        flag(clauses, args, Events.ALL_DAY, (Boolean) map.get("isAllDay"));
+        flag(clauses, args, Events.HAS_ALARM, (Boolean) map.get("hasAlarm"));
+
+        String titlePrefix = (String) map.get("titlePrefix");
+        if (titlePrefix != null && !titlePrefix.isEmpty()) {
+            clauses.add(Events.TITLE + " LIKE ? ESCAPE '\\'");
+            args.add(titlePrefix.replace("\\", "\\\\").replace("%", "\\%")
+                    .replace("_", "\\_") + "%");
+        }
+        String organizer = (String) map.get("organizer");
+        if (organizer != null) {
+            clauses.add(Events.ORGANIZER + " = ? COLLATE NOCASE");
+            args.add(organizer);
+        }
+        if (clauses.isEmpty()) {
+            return null;
+        }
+
+        String selection = "(" + join(" AND ", clauses) + ")";
+        return new EventFilter(selection, args.toArray(new String[0]),
+                selection + "|" + join("|", args), map);
+    }
+
+    /**
+     * Same test as the selection, for an event whose values aren't stored yet: the title and
+     * flags are taken from the event, the other columns from the row the cursor is positioned
+     * on, which has to include {@link #STORED_COLUMNS}.
+     */
+    @SuppressWarnings("unchecked")
+    boolean accepts(Cursor row, CalendarEvent event) {
+        if (!in(row, Events.STATUS, (List<Number>) map.get("status"), Events.STATUS_CONFIRMED)
+                || !in(row, Events.SELF_ATTENDEE_STATUS,
+                        (List<Number>) map.get("selfAttendeeStatus"),
+                        Attendees.ATTENDEE_STATUS_NONE)
+                || !in(row, Events.AVAILABILITY, (List<Number>) map.get("availability"),
+                        Events.AVAILABILITY_BUSY)) {
+            return false;
+        }
+        Boolean isAllDay = (Boolean) map.get("isAllDay");
+        Boolean hasAlarm = (Boolean) map.get("hasAlarm");
+        if ((isAllDay != null && isAllDay != event.isAllDay())
+                || (hasAlarm != null && hasAlarm != event.isHasAlarm())) {
+            return false;
+        }
+        String titlePrefix = (String) map.get("titlePrefix");
+        if (titlePrefix != null && !titlePrefix.isEmpty() && (event.getTitle() == null
+                || !event.getTitle().regionMatches(true, 0, titlePrefix, 0,
+                        titlePrefix.length()))) {
+            return false;
+        }
+        String organizer = (String) map.get("organizer");
+        if (organizer != null) {
+            int index = row.getColumnIndex(Events.ORGANIZER);
+            return index != -1 && organizer.equalsIgnoreCase(row.getString(index));
+        }
+        return true;
+    }
+
+    private static boolean in(Cursor row, String column, List<Number> values, int nullValue) {
+        if (values == null) {
+            return true;
+        }
+        int index = row.getColumnIndex(column);
+        int value = index == -1 || row.isNull(index) ? nullValue : row.getInt(index);
+        for (Number accepted : values) {
+            if (accepted.intValue() == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String join(String separator, List<String> values) {
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() > 0) {
+                joined.append(separator);
+            }
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    private static void in(List<String> clauses, List<String> args, String column,
+                           List<Number> values, int nullValue) {
+        if (values == null) {
+            return;
+        }
+        if (values.isEmpty()) {
+            clauses.add("0");
+            return;
+        }
+        StringBuilder clause = new StringBuilder("(").append(column).append(" IN (");
+        boolean acceptsNull = false;
+        for (int i = 0; i < values.size(); i++) {
+            clause.append(i == 0 ? "?" : ",?");
+            args.add(String.valueOf(values.get(i).intValue()));
+            acceptsNull |= values.get(i).intValue() == nullValue;
+        }
+        clause.append(")");
+        if (acceptsNull) {
+            clause.append(" OR ").append(column).append(" IS NULL");
+        }
+        clauses.add(clause.append(")").toString());
+    }
+
+    private static void flag(List<String> clauses, List<String> args, String column,
+                             Boolean value) {
+        if (value != null) {
+            clauses.add(column + " = ?");
+            args.add(value ? "1" : "0");
+        }
+    }
+
+    /**
+     * Returns the selection restricted to the rows accepted by the filter.
+     */
+    static String where(String selection, EventFilter filter) {
+        return filter != null ? selection + " AND " + filter.selection : selection;
+    }
+
+    /**
+     * Returns the selection arguments of the filter, to pass along with {@link #where}.
+     */
+    static String[] args(EventFilter filter) {
+        return filter != null ? filter.args : null;
+    }
+
+    /**
+     * Identifies the filter in read keys.
+     */
+    static String key(EventFilter filter) {
+        return filter != null ? filter.key : "";
+    }
+}
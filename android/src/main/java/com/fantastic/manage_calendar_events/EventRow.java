@@ -0,0 +1,89 @@
+package com.fantastic.manage_calendar_events;
+
+import android.database.Cursor;
+import android.provider.CalendarContract.Events;
+
+import com.fantastic.manage_calendar_events.models.CalendarEvent;
+
+/**
+ * Reads rows of an {@link Events} cursor into reusable fields, so a cursor can be walked (or
+ * streamed out) without allocating an event per row. Column indexes are resolved once.
+ */
+final class EventRow {
+
+    private final Cursor cur;
+    private final int eventIdIndex;
+    private final int titleIndex;
+    private final int descIndex;
+    private final int locationIndex;
+    private final int urlIndex;
+    private final int startDateIndex;
+    private final int endDateIndex;
+    private final int rRuleIndex;
+    private final int durationIndex;
+    private final int allDayIndex;
+    private final int hasAlarmIndex;
+
+    String eventId;
+    String title;
+    String description;
+    String location;
+    String url;
+    String rRule;
+    long startDate;
+    long endDate;
+    boolean isAllDay;
+    boolean hasAlarm;
+
+    EventRow(Cursor cur) {
+        this.cur = cur;
+        eventIdIndex = cur.getColumnIndex(Events._ID);
+        titleIndex = cur.getColumnIndex(Events.TITLE);
+        descIndex = cur.getColumnIndex(Events.DESCRIPTION);
+        locationIndex = cur.getColumnIndex(Events.EVENT_LOCATION);
+        urlIndex = cur.getColumnIndex(Events.CUSTOM_APP_URI);
+        startDateIndex = cur.getColumnIndex(Events.DTSTART);
+        endDateIndex = cur.getColumnIndex(Events.DTEND);
+        rRuleIndex = cur.getColumnIndex(Events.RRULE);
+        durationIndex = cur.getColumnIndex(Events.DURATION);
+        allDayIndex = cur.getColumnIndex(Events.ALL_DAY);
+        hasAlarmIndex = cur.getColumnIndex(Events.HAS_ALARM);
+    }
+
+    boolean hasRequiredColumns() {
+        return eventIdIndex != -1 && titleIndex != -1 && startDateIndex != -1
+                && endDateIndex != -1;
+    }
+
+    /**
+     * Reads the row the cursor is currently positioned on.
+     */
+    void read() {
+        eventId = cur.getString(eventIdIndex);
+        title = cur.getString(titleIndex);
+        description = descIndex != -1 ? cur.getString(descIndex) : null;
+        location = locationIndex != -1 ? cur.getString(locationIndex) : null;
+        url = urlIndex != -1 ? cur.getString(urlIndex) : null;
+        rRule = rRuleIndex != -1 ? cur.getString(rRuleIndex) : null;
+        startDate = cur.getLong(startDateIndex);
+        endDate = endDateIndex != -1 ? cur.getLong(endDateIndex) : 0;
+        long duration = durationIndex != -1 ? cur.getLong(durationIndex) : 0;
+
+        // 如果结束时间为 0，根据持续时间计算
+        if (endDate == 0 && duration > 0) {
+            endDate = startDate + duration;
+        }
+
+        isAllDay = allDayIndex != -1 && cur.getInt(allDayIndex) > 0;
+        hasAlarm = hasAlarmIndex != -1 && cur.getInt(hasAlarmIndex) > 0;
+    }
+
+    boolean isRecurring() {
+        return rRule != null && !rRule.isEmpty();
+    }
+
+    CalendarEvent toEvent() {
+        return new CalendarEvent(eventId, title, description, startDate, endDate, location, url,
+                isAllDay, hasAlarm);
+    }
+}
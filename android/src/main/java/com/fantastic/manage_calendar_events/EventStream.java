@@ -0,0 +1,45 @@
+package com.fantastic.manage_calendar_events;
+
+import android.os.Handler;
+
+import java.util.Map;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Pushes native events (progress, changes...) to Dart over the plugin's {@link EventChannel}.
+ * Every event is a map with a {@code type} entry. Events sent while Dart isn't listening are
+ * dropped.
+ */
+final class EventStream implements EventChannel.StreamHandler {
+
+    private final Handler mainHandler;
+
+    // Only touched on the main thread.
+    private EventChannel.EventSink sink;
+
+    EventStream(Handler mainHandler) {
+        this.mainHandler = mainHandler;
+    }
+
+    @Override
+    public void onListen(Object arguments, EventChannel.EventSink events) {
+        sink = events;
+    }
+
+    @Override
+    public void onCancel(Object arguments) {
+        sink = null;
+    }
+
+    /**
+     * Sends the event from any thread.
+     */
+    void send(final Map<String, Object> event) {
+        mainHandler.post(() -> {
+            if (sink != null) {
+                sink.success(event);
+            }
+        });
+    }
+}
@@ -0,0 +1,303 @@
+package com.fantastic.manage_calendar_events;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.util.Log;
+
+import com.fantastic.manage_calendar_events.models.CalendarEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Write-behind queue for event updates, for callers (drag and resize gestures...) that update
+ * the same events many times per second. Only the latest values of each event are kept and
+ * written when the queue is flushed, a short while after the first queued update or on demand.
+ * Every write is reported over the {@link EventStream} as a {@code writeCommitted} event.
+ *
+ * Until their write has completed, queued values are applied to read results by
+ * {@link #overlay}, so a read never goes back to the state before an accepted update.
+ */
+final class EventWriteQueue {
+
+    static final long FLUSH_DELAY_MS = 500;
+
+    interface FlushCallback {
+        void onFlushed(int written);
+    }
+
+    private static final class Pending {
+        final String calendarId;
+        final CalendarEvent event;
+
+        Pending(String calendarId, CalendarEvent event) {
+            this.calendarId = calendarId;
+            this.event = event;
+        }
+    }
+
+    private final CalendarOperations operations;
+    private final Executor executor;
+    private final Handler mainHandler;
+    private final EventStream eventStream;
+
+    // Guarded by this. Queued and being written, both by event id.
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+    private final Map<String, Pending> writing = new HashMap<>();
+    private long version;
+    private boolean flushScheduled;
+
+    private final Runnable scheduledFlush = () -> flush(null);
+
+    EventWriteQueue(CalendarOperations operations, Executor executor, Handler mainHandler,
+                    EventStream eventStream) {
+        this.operations = operations;
+        this.executor = executor;
+        this.mainHandler = mainHandler;
+        this.eventStream = eventStream;
+    }
+
+    /**
+     * Queues the update, replacing the values queued for the same event.
+     */
+    void enqueue(String calendarId, CalendarEvent event) {
+        synchronized (this) {
+            pending.put(event.getEventId(), new Pending(calendarId, event));
+            version++;
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        mainHandler.postDelayed(scheduledFlush, FLUSH_DELAY_MS);
+    }
+
+    /**
+     * Drops the values queued for the event, which is about to be written or deleted
+     * directly. The direct write has to go through the executor so that it lands after the
+     * deferred writes already flushed, which would revert it otherwise.
+     */
+    synchronized void discard(String eventId) {
+        if (pending.remove(eventId) != null) {
+            version++;
+        }
+    }
+
+    /**
+     * Writes the values queued for the event on the executor, ahead of a direct write which
+     * only changes some of its fields and is submitted to the executor after this call. The
+     * queued values are kept that way, and can't revert the direct write when flushed later.
+     */
+    void flushEvent(String eventId) {
+        Pending entry;
+        synchronized (this) {
+            entry = pending.remove(eventId);
+            if (entry == null) {
+                return;
+            }
+            writing.put(eventId, entry);
+        }
+        write(Collections.singletonList(entry), null);
+    }
+
+    /**
+     * Writes every queued update on the executor.
+     *
+     * @param onDone - Run on the main thread with the number of written events, may be null
+     */
+    void flush(final FlushCallback onDone) {
+        final List<Pending> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+            for (Pending entry : batch) {
+                writing.put(entry.event.getEventId(), entry);
+            }
+        }
+        mainHandler.removeCallbacks(scheduledFlush);
+        write(batch, onDone);
+    }
+
+    private void write(final List<Pending> batch, final FlushCallback onDone) {
+        executor.execute(() -> {
+            int written = 0;
+            for (Pending entry : batch) {
+                String eventId = entry.event.getEventId();
+                boolean success;
+                try {
+                    success = operations.createUpdateEvent(entry.calendarId, entry.event);
+                } catch (Exception e) {
+                    Log.e("DART/NATIVE", "Deferred update of " + eventId + " failed", e);
+                    success = false;
+                }
+                synchronized (this) {
+                    if (writing.get(eventId) == entry) {
+                        writing.remove(eventId);
+                    }
+                    version++;
+                }
+                if (success) {
+                    written++;
+                }
+                Map<String, Object> event = new HashMap<>();
+                event.put("type", "writeCommitted");
+                event.put("eventId", eventId);
+                event.put("success", success);
+                eventStream.send(event);
+            }
+            if (onDone != null) {
+                final int count = written;
+                mainHandler.post(() -> onDone.onFlushed(count));
+            }
+        });
+    }
+
+    synchronized boolean isEmpty() {
+        return pending.isEmpty() && writing.isEmpty();
+    }
+
+    /**
+     * Returns the number of events queued or being written.
+     */
+    synchronized int size() {
+        return pending.size() + writing.size();
+    }
+
+    /**
+     * Changes whenever the queued values do, for read keys.
+     */
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Applies the queued values of the calendar's events to a start ordered read result.
+     * Queued values are merged onto the stored rows the way the update writes them, a missing
+     * location or url keeping the stored one, and the events are kept, added or dropped as the
+     * filter and the window then require. The occurrences of a recurring event are moved
+     * along with its start since the update keeps the recurrence rule; occurrences the read
+     * didn't return, because they were outside the window before the move, aren't added.
+     *
+     * @param startDate - Start of the read window, null if the read had none
+     * @param endDate - End of the read window, null if the read had none
+     * @param filter - Filter of the read, may be null
+     * @param signal - Aborts the read of the stored rows once cancelled, may be null
+     */
+    List<CalendarEvent> overlay(String calendarId, List<CalendarEvent> events, Long startDate,
+                                Long endDate, EventFilter filter, CancellationSignal signal) {
+        final Map<String, CalendarEvent> changes = new HashMap<>();
+        synchronized (this) {
+            for (Pending entry : writing.values()) {
+                if (entry.calendarId.equals(calendarId)) {
+                    changes.put(entry.event.getEventId(), entry.event);
+                }
+            }
+            for (Pending entry : pending.values()) {
+                if (entry.calendarId.equals(calendarId)) {
+                    changes.put(entry.event.getEventId(), entry.event);
+                }
+            }
+        }
+        if (changes.isEmpty()) {
+            return events;
+        }
+
+        // Updated events which still exist and pass the filter, by id.
+        final Map<String, Updated> updated = new HashMap<>();
+        operations.forEachEventRow(calendarId, changes.keySet(), signal, (row, cur) -> {
+            CalendarEvent event = merge(row, changes.get(row.eventId));
+            if (filter == null || filter.accepts(cur, event)) {
+                updated.put(row.eventId, new Updated(event,
+                        row.isRecurring() ? event.getStartDate() - row.startDate : null));
+            }
+        });
+
+        List<CalendarEvent> result = new ArrayList<>(events.size());
+        List<CalendarEvent> moved = new ArrayList<>();
+        for (CalendarEvent event : events) {
+            if (!changes.containsKey(event.getEventId())) {
+                result.add(event);
+                continue;
+            }
+            Updated update = updated.get(event.getEventId());
+            if (update == null) {
+                continue;
+            }
+            CalendarEvent occurrence = update.event;
+            if (update.shift != null) {
+                long start = event.getStartDate() + update.shift;
+                occurrence = copy(update.event, start,
+                        start + update.event.getEndDate() - update.event.getStartDate());
+                moved.add(occurrence);
+            } else if (update.read) {
+                continue; // A one-off event is only read once, unless the window splits it.
+            }
+            update.read = true;
+            occurrence.setReminder(event.getReminder());
+            occurrence.setAttendees(event.getAttendees());
+        }
+        for (Updated update : updated.values()) {
+            if (update.shift == null) {
+                moved.add(update.event);
+            }
+        }
+        for (CalendarEvent event : moved) {
+            if ((startDate != null && event.getEndDate() < startDate)
+                    || (endDate != null && event.getStartDate() > endDate)) {
+                continue;
+            }
+            result.add(insertionPoint(result, event.getStartDate()), event);
+        }
+        return result;
+    }
+
+    private static final class Updated {
+        final CalendarEvent event;
+        // How far the occurrences move, null for a one-off event.
+        final Long shift;
+        boolean read;
+
+        Updated(CalendarEvent event, Long shift) {
+            this.event = event;
+            this.shift = shift;
+        }
+    }
+
+    /**
+     * Returns the stored row with the queued values applied, as
+     * {@link CalendarOperations#createUpdateEvent} writes them.
+     */
+    private static CalendarEvent merge(EventRow row, CalendarEvent change) {
+        return new CalendarEvent(row.eventId, change.getTitle(), change.getDescription(),
+                change.getStartDate(), change.getEndDate(),
+                change.getLocation() != null ? change.getLocation() : row.location,
+                change.getUrl() != null ? change.getUrl() : row.url, change.isAllDay(),
+                change.isHasAlarm());
+    }
+
+    private static CalendarEvent copy(CalendarEvent event, long startDate, long endDate) {
+        return new CalendarEvent(event.getEventId(), event.getTitle(), event.getDescription(),
+                startDate, endDate, event.getLocation(), event.getUrl(), event.isAllDay(),
+                event.isHasAlarm());
+    }
+
+    private static int insertionPoint(List<CalendarEvent> events, long startDate) {
+        int low = 0;
+        int high = events.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (events.get(middle).getStartDate() <= startDate) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
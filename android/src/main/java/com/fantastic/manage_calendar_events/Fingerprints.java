@@ -0,0 +1,38 @@
+package com.fantastic.manage_calendar_events;
+
+/**
+ * 64-bit FNV-1a hashing, used to compare events by content without keeping their content.
+ */
+final class Fingerprints {
+
+    static final long SEED = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private Fingerprints() {
+    }
+
+    static long add(long hash, String value) {
+        if (value == null) {
+            return add(hash, -1L);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * PRIME;
+            hash = (hash ^ (c >>> 8)) * PRIME;
+        }
+        // Separator, so ("ab", "c") and ("a", "bc") differ.
+        return (hash ^ 0xff) * PRIME;
+    }
+
+    static long add(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ (value & 0xff)) * PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    static long of(String value) {
+        return add(SEED, value);
+    }
+}
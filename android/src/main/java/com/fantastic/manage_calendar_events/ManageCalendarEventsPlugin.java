@@ -2,22 +2,38 @@ package com.fantastic.manage_calendar_events;
 
 import android.app.Activity;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import com.fantastic.manage_calendar_events.ics.IcsExporter;
+import com.fantastic.manage_calendar_events.ics.IcsImporter;
+import com.fantastic.manage_calendar_events.ics.IcsReader;
+import com.fantastic.manage_calendar_events.ics.IcsWriter;
 import com.fantastic.manage_calendar_events.models.Calendar;
 import com.fantastic.manage_calendar_events.models.CalendarEvent;
-import com.google.gson.Gson;
 
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
 import io.flutter.embedding.engine.plugins.activity.ActivityAware;
 import io.flutter.embedding.engine.plugins.activity.ActivityPluginBinding;
 import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
@@ -29,37 +45,75 @@ import io.flutter.plugin.common.MethodChannel.Result;
 public class ManageCalendarEventsPlugin implements FlutterPlugin, ActivityAware, MethodCallHandler {
 
     private static final String channelName = "manage_calendar_events";
-    private final Gson gson = new Gson();
+    private static final String eventChannelName = "manage_calendar_events/events";
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final EventStream eventStream = new EventStream(mainHandler);
+
+    // Shared with the other Flutter engines of the process.
+    private CalendarEngine engine;
+    private ExecutorService bulkExecutor;
+    private RangePrefetcher prefetcher;
+    // Per engine, so that request ids and shutdown stay local to it.
+    private ReadCoalescer reads;
 
     private MethodChannel methodChannel;
+    private EventChannel eventChannel;
     private BinaryMessenger binaryMessenger;
     private Context context;
     private Activity activity;
     private CalendarOperations operations;
+    private ChangeWatcher watcher;
+    private EventWriteQueue writeQueue;
 
+    /**
+     * Registers the channels as soon as the plugin is attached to an engine. Every call works
+     * from the application context alone, so background engines without an activity can read
+     * the calendars once the permissions have been granted.
+     */
     private static void setup(ManageCalendarEventsPlugin plugin, BinaryMessenger binaryMessenger,
-                              Activity activity, Context context) {
+                              Context context) {
         plugin.binaryMessenger = binaryMessenger;
-        plugin.activity = activity;
         plugin.context = context;
-        plugin.operations = new CalendarOperations(activity, context);
+        plugin.engine = CalendarEngine.acquire(context);
+        plugin.operations = plugin.engine.operations;
+        plugin.bulkExecutor = plugin.engine.bulkExecutor;
+        plugin.prefetcher = plugin.engine.prefetcher;
+        plugin.reads = new ReadCoalescer(plugin.engine.readExecutor, plugin.mainHandler);
+        plugin.watcher = new ChangeWatcher(plugin.operations, plugin.engine.readExecutor,
+                plugin.mainHandler, plugin.eventStream);
+        plugin.writeQueue = new EventWriteQueue(plugin.operations, plugin.engine.writeExecutor,
+                plugin.mainHandler, plugin.eventStream);
 
         plugin.methodChannel = new MethodChannel(binaryMessenger, channelName);
         plugin.methodChannel.setMethodCallHandler(plugin);
+        plugin.eventChannel = new EventChannel(binaryMessenger, eventChannelName);
+        plugin.eventChannel.setStreamHandler(plugin.eventStream);
     }
 
 
     @Override
     public void onAttachedToEngine(@NonNull FlutterPluginBinding flutterPluginBinding) {
         Log.d("DART/NATIVE", "onAttachedToEngine");
-        binaryMessenger= flutterPluginBinding.getBinaryMessenger();
-        context = flutterPluginBinding.getApplicationContext();
+        setup(this, flutterPluginBinding.getBinaryMessenger(),
+                flutterPluginBinding.getApplicationContext());
     }
 
     @Override
     public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
         Log.d("DART/NATIVE", "onDetachedFromEngine");
         methodChannel.setMethodCallHandler(null);
+        eventChannel.setStreamHandler(null);
+        reads.cancelAll();
+        watcher.clear();
+        // Queued edits were accepted, they are written before the pool shuts down.
+        writeQueue.flush(null);
+        if (activity != null) {
+            operations.detachActivity(activity);
+            activity = null;
+        }
+        engine.release();
+        engine = null;
     }
 
 
@@ -68,22 +122,28 @@ public class ManageCalendarEventsPlugin implements FlutterPlugin, ActivityAware,
     public void onAttachedToActivity(@NonNull ActivityPluginBinding binding) {
         Log.d("DART/NATIVE", "onAttachedToActivity");
         activity = binding.getActivity();
-        setup(this, binaryMessenger, activity, context );
+        operations.attachActivity(activity);
     }
 
     @Override
     public void onDetachedFromActivityForConfigChanges() {
         Log.d("DART/NATIVE", "onDetachedFromActivityForConfigChanges");
+        onDetachedFromActivity();
     }
 
     @Override
     public void onReattachedToActivityForConfigChanges(@NonNull ActivityPluginBinding binding) {
         Log.d("DART/NATIVE", "onReattachedToActivityForConfigChanges");
+        onAttachedToActivity(binding);
     }
 
     @Override
     public void onDetachedFromActivity() {
         Log.d("DART/NATIVE", "onDetachedFromActivity");
+        if (activity != null) {
+            operations.detachActivity(activity);
+            activity = null;
+        }
     }
 
     @Override
@@ -93,19 +153,194 @@ public class ManageCalendarEventsPlugin implements FlutterPlugin, ActivityAware,
         } else if (call.method.equals("hasPermissions")) {
             result.success(operations.hasPermissions());
         } else if (call.method.equals("requestPermissions")) {
-            operations.requestPermissions();
+            if (operations.requestPermissions()) {
+                result.success(null);
+            } else {
+                result.error("NO_ACTIVITY",
+                        "Permissions can only be requested with an attached activity", null);
+            }
         } else if (call.method.equals("getCalendars")) {
             ArrayList<Calendar> calendarArrayList = operations.getCalendars();
-            result.success(gson.toJson(calendarArrayList));
+            result.success(CalendarJsonWriter.calendars(calendarArrayList));
         } else if (call.method.equals("getEvents")) {
             String calendarId = call.argument("calendarId");
-            result.success(gson.toJson(operations.getAllEvents(calendarId)));
+            EventFilter filter = EventFilter.fromMap(call.argument("filter"));
+            String key = readKey(call.method, calendarId, EventFilter.key(filter));
+            final CalendarOperations ops = operations;
+            if (!writeQueue.isEmpty()) {
+                final EventWriteQueue queue = writeQueue;
+                runRead(call, result, readKey(key, queue.getVersion()),
+                        signal -> CalendarJsonWriter.events(queue.overlay(calendarId,
+                                ops.getAllEvents(calendarId, filter, signal), null, null,
+                                filter, signal)));
+            } else {
+                runRead(call, result, key,
+                        signal -> CalendarJsonWriter.write(
+                                out -> ops.writeAllEvents(out, calendarId, filter, signal)));
+            }
         } else if (call.method.equals("getEventsByDateRange")) {
             String calendarId = call.argument("calendarId");
             long startDate = call.argument("startDate");
             long endDate = call.argument("endDate");
-            result.success(gson.toJson(operations.getEventsByDateRange(calendarId, startDate,
-                    endDate)));
+            EventFilter filter = EventFilter.fromMap(call.argument("filter"));
+            String key = readKey(call.method, calendarId, startDate, endDate,
+                    EventFilter.key(filter));
+            boolean collapse = Boolean.TRUE.equals(call.argument("collapseDuplicates"));
+            List<String> otherCalendarIds = call.argument("otherCalendarIds");
+            if (collapse || otherCalendarIds != null || !writeQueue.isEmpty()) {
+                final CalendarOperations ops = operations;
+                final EventWriteQueue queue = writeQueue;
+                final Set<String> calendarIds = new LinkedHashSet<>();
+                calendarIds.add(calendarId);
+                if (otherCalendarIds != null) {
+                    calendarIds.addAll(otherCalendarIds);
+                }
+                runRead(call, result, readKey(key, calendarIds, collapse, queue.getVersion()),
+                        signal -> {
+                    List<List<CalendarEvent>> calendars = new ArrayList<>(calendarIds.size());
+                    for (String id : calendarIds) {
+                        calendars.add(queue.overlay(id,
+                                ops.getEventsByDateRange(id, startDate, endDate, filter, signal),
+                                startDate, endDate, filter, signal));
+                    }
+                    List<CalendarEvent> events = CalendarOperations.mergeByStart(calendars);
+                    return CalendarJsonWriter.events(collapse
+                            ? CalendarOperations.collapseDuplicates(events) : events);
+                });
+            } else {
+                final long generation = operations.getChangeGeneration();
+                String prefetched = prefetcher.get(key, generation);
+                if (prefetched != null) {
+                    result.success(prefetched);
+                } else {
+                    final RangePrefetcher windows = prefetcher;
+                    final ReadCoalescer.Read read = eventsByDateRange(operations, calendarId,
+                            startDate, endDate, filter, false);
+                    // A prefetch of the window already running is joined rather than read a
+                    // second time, one still queued is taken over by this read.
+                    runRead(call, result, key, signal -> {
+                        String loaded = windows.await(key, generation, signal);
+                        return loaded != null ? loaded : read.run(signal);
+                    });
+                }
+            }
+            List<Map<String, Object>> prefetchRanges = call.argument("prefetch");
+            if (prefetchRanges != null) {
+                prefetch(calendarId, prefetchRanges, filter);
+            }
+        } else if (call.method.equals("getEventRangeByDateRange")) {
+            String calendarId = call.argument("calendarId");
+            long startDate = call.argument("startDate");
+            long endDate = call.argument("endDate");
+            EventFilter filter = EventFilter.fromMap(call.argument("filter"));
+            final CalendarOperations ops = operations;
+            runRead(call, result, readKey(call.method, calendarId, startDate, endDate,
+                    EventFilter.key(filter)),
+                    signal -> CalendarJsonWriter.eventRange(ops.getEventRangeByDateRange(
+                            calendarId, startDate, endDate, filter, signal)));
+        } else if (call.method.equals("getNextEvents")) {
+            String calendarId = call.argument("calendarId");
+            long startDate = call.argument("startDate");
+            long endDate = call.argument("endDate");
+            int limit = call.argument("limit");
+            EventFilter filter = EventFilter.fromMap(call.argument("filter"));
+            final CalendarOperations ops = operations;
+            if (!writeQueue.isEmpty()) {
+                final EventWriteQueue queue = writeQueue;
+                runRead(call, result, readKey(call.method, calendarId, startDate, endDate, limit,
+                        EventFilter.key(filter), queue.getVersion()), signal -> {
+                    // Queued updates may move events out, read enough to fill their places.
+                    List<CalendarEvent> events = queue.overlay(calendarId,
+                            ops.getNextEvents(calendarId, startDate, endDate,
+                                    limit + queue.size(), filter, signal),
+                            startDate, endDate, filter, signal);
+                    return CalendarJsonWriter.events(events.size() > limit
+                            ? events.subList(0, limit) : events);
+                });
+            } else {
+                runRead(call, result, readKey(call.method, calendarId, startDate, endDate, limit,
+                        EventFilter.key(filter)),
+                        signal -> CalendarJsonWriter.events(ops.getNextEvents(calendarId,
+                                startDate, endDate, limit, filter, signal)));
+            }
+        } else if (call.method.equals("getUpcomingAlarms")) {
+            long now = call.argument("now");
+            long until = call.argument("until");
+            int limit = call.argument("limit");
+            final CalendarOperations ops = operations;
+            runRead(call, result, readKey(call.method, now, until, limit),
+                    signal -> CalendarJsonWriter.alarms(
+                            ops.getUpcomingAlarms(now, until, limit, signal)));
+        } else if (call.method.equals("findDuplicates")) {
+            List<String> calendarIds = call.argument("calendarIds");
+            long startDate = call.argument("startDate");
+            long endDate = call.argument("endDate");
+            EventFilter filter = EventFilter.fromMap(call.argument("filter"));
+            final CalendarOperations ops = operations;
+            runRead(call, result, readKey(call.method, calendarIds, startDate, endDate,
+                    EventFilter.key(filter)),
+                    signal -> {
+                        List<List<Map<String, Object>>> clusters = new ArrayList<>();
+                        for (List<DuplicateIndex.Occurrence> cluster : ops.findDuplicates(
+                                calendarIds, startDate, endDate, filter, signal)) {
+                            List<Map<String, Object>> occurrences = new ArrayList<>();
+                            for (DuplicateIndex.Occurrence occurrence : cluster) {
+                                occurrences.add(occurrence.toMap());
+                            }
+                            clusters.add(occurrences);
+                        }
+                        return clusters;
+                    });
+        } else if (call.method.equals("importIcs")) {
+            final String calendarId = call.argument("calendarId");
+            final String path = call.argument("path");
+            final String requestId = call.argument("requestId");
+            final Context ctx = context;
+            final CalendarOperations ops = operations;
+            reads.execute(bulkExecutor, null, 0, requestId, result, signal -> {
+                try (IcsReader reader = new IcsReader(new InputStreamReader(
+                        new FileInputStream(path), StandardCharsets.UTF_8))) {
+                    IcsImporter.Summary summary = new IcsImporter(ctx, calendarId).importFrom(
+                            reader, processed -> sendIcsProgress("import", path, requestId,
+                                    processed), signal);
+                    Map<String, Object> map = new HashMap<>();
+                    map.put("imported", summary.imported);
+                    map.put("skipped", summary.skipped);
+                    return map;
+                } finally {
+                    // Even a failed import may have committed some of its batches.
+                    ops.markChanged();
+                }
+            });
+        } else if (call.method.equals("exportIcs")) {
+            final List<String> calendarIds = call.argument("calendarIds");
+            final Long startDate = toLong(call.argument("startDate"));
+            final Long endDate = toLong(call.argument("endDate"));
+            final String path = call.argument("path");
+            final String requestId = call.argument("requestId");
+            final Context ctx = context;
+            reads.execute(bulkExecutor, null, 0, requestId, result, signal -> {
+                try (IcsWriter writer = new IcsWriter(new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(path), StandardCharsets.UTF_8)))) {
+                    return new IcsExporter(ctx).export(calendarIds, startDate, endDate, writer,
+                            processed -> sendIcsProgress("export", path, requestId, processed),
+                            signal);
+                }
+            });
+        } else if (call.method.equals("watch")) {
+            String subscriptionId = call.argument("subscriptionId");
+            String calendarId = call.argument("calendarId");
+            long startDate = call.argument("startDate");
+            long endDate = call.argument("endDate");
+            watcher.watch(subscriptionId, calendarId, startDate, endDate);
+            result.success(null);
+        } else if (call.method.equals("unwatch")) {
+            String subscriptionId = call.argument("subscriptionId");
+            watcher.unwatch(subscriptionId);
+            result.success(null);
+        } else if (call.method.equals("cancel")) {
+            String requestId = call.argument("requestId");
+            result.success(requestId != null && reads.cancel(requestId));
         } else if (call.method.equals("createEvent") || call.method.equals("updateEvent")) {
             String calendarId = call.argument("calendarId");
             String eventId = call.argument("eventId");
@@ -119,15 +354,51 @@ public class ManageCalendarEventsPlugin implements FlutterPlugin, ActivityAware,
             boolean hasAlarm = call.argument("hasAlarm");
             CalendarEvent event = new CalendarEvent(eventId, title, description, startDate,
                     endDate, location, url, isAllDay, hasAlarm);
-            operations.createUpdateEvent(calendarId, event);
-            if (call.hasArgument("attendees")) {
-                addAttendees(event.getEventId(), call);
+            if (eventId != null && Boolean.TRUE.equals(call.argument("deferred"))) {
+                writeQueue.enqueue(calendarId, event);
+                if (call.argument("attendees") != null) {
+                    addAttendees(eventId, call);
+                }
+                result.success(eventId);
+                return;
             }
-            result.success(event.getEventId());
+            final CalendarOperations ops = operations;
+            runWrite(eventId, result, signal -> {
+                // Null tells Dart that nothing was written.
+                if (!ops.createUpdateEvent(calendarId, event)) {
+                    return null;
+                }
+                if (call.argument("attendees") != null) {
+                    addAttendees(event.getEventId(), call);
+                }
+                return event.getEventId();
+            });
+        } else if (call.method.equals("patchEvent")) {
+            String calendarId = call.argument("calendarId");
+            String eventId = call.argument("eventId");
+            Map<String, Object> changes = call.argument("changes");
+            try {
+                CalendarOperations.checkPatch(eventId, changes);
+            } catch (IllegalArgumentException e) {
+                result.error("INVALID_ARGUMENT", e.getMessage(), null);
+                return;
+            }
+            final CalendarOperations ops = operations;
+            // A patch changes only some fields, the queued ones are written first rather than
+            // dropped.
+            writeQueue.flushEvent(eventId);
+            runWrite(null, result, signal -> ops.patchEvent(calendarId, eventId, changes));
         } else if (call.method.equals("deleteEvent")) {
             String calendarId = call.argument("calendarId");
             String eventId = call.argument("eventId");
-            result.success(operations.deleteEvent(calendarId, eventId));
+            final CalendarOperations ops = operations;
+            runWrite(eventId, result, signal -> ops.deleteEvent(calendarId, eventId));
+        } else if (call.method.equals("flushPendingUpdates")) {
+            writeQueue.flush(result::success);
+        } else if (call.method.equals("setParallelReadThreshold")) {
+            Number threshold = call.argument("threshold");
+            operations.setParallelReadThreshold(threshold != null ? threshold.longValue() : 0);
+            result.success(null);
         } else if (call.method.equals("addReminder")) {
             String calendarId = call.argument("calendarId");
             String eventId = call.argument("eventId");
@@ -143,7 +414,7 @@ public class ManageCalendarEventsPlugin implements FlutterPlugin, ActivityAware,
             result.success(operations.deleteReminder(eventId));
         } else if (call.method.equals("getAttendees")) {
             String eventId = call.argument("eventId");
-            result.success(gson.toJson(operations.getAttendees(eventId)));
+            result.success(CalendarJsonWriter.attendees(operations.getAttendees(eventId)));
         } else if (call.method.equals("addAttendees")) {
             String eventId = call.argument("eventId");
             addAttendees(eventId, call);
@@ -162,6 +433,95 @@ public class ManageCalendarEventsPlugin implements FlutterPlugin, ActivityAware,
         }
     }
 
+    /**
+     * Runs a read off the main thread and replies on it. Identical reads in flight at the same
+     * time share one execution. When the call carries a {@code requestId} the read can be
+     * aborted through the {@code cancel} method, in which case the call fails with a
+     * {@code CANCELLED} error.
+     *
+     * @param key - Identifies identical reads, see {@link #readKey}
+     */
+    private void runRead(MethodCall call, Result result, String key, ReadCoalescer.Read read) {
+        String requestId = call.argument("requestId");
+        reads.execute(key, operations.getChangeGeneration(), requestId, result, read);
+    }
+
+    /**
+     * Writes an event directly, off the main thread, and replies on it. The values queued for
+     * an event which is replaced or deleted are dropped, and the write goes through the write
+     * executor so that it lands after the deferred writes already flushed, which would revert it
+     * otherwise.
+     *
+     * @param eventId - Event whose queued values are dropped, null for a new event or a patch
+     */
+    private void runWrite(String eventId, Result result, ReadCoalescer.Read write) {
+        if (eventId != null) {
+            writeQueue.discard(eventId);
+        }
+        reads.execute(engine.writeExecutor, null, 0, null, result, write);
+    }
+
+    /**
+     * @param background - Enriches the events on the background pool, for prefetches
+     */
+    private static ReadCoalescer.Read eventsByDateRange(final CalendarOperations ops,
+                                                        final String calendarId,
+                                                        final long startDate,
+                                                        final long endDate,
+                                                        final EventFilter filter,
+                                                        final boolean background) {
+        // Wide windows may be read in parallel partitions, either way the events are streamed
+        // into the document.
+        return signal -> ops.isPartitioned(startDate, endDate)
+                ? CalendarJsonWriter.write(out -> ops.writeEventsByDateRangePartitioned(out,
+                        calendarId, startDate, endDate, filter, background, signal))
+                : CalendarJsonWriter.write(out -> ops.writeEventsByDateRange(out,
+                        calendarId, startDate, endDate, filter, background, signal));
+    }
+
+    /**
+     * Loads the given windows of the calendar in the background so a following
+     * {@code getEventsByDateRange} call for one of them is answered without a provider read.
+     *
+     * @param ranges - Windows as maps of {@code startDate} and {@code endDate}
+     * @param filter - Filter of the read the windows are adjacent to, may be null
+     */
+    private void prefetch(String calendarId, List<Map<String, Object>> ranges,
+                          EventFilter filter) {
+        long generation = operations.getChangeGeneration();
+        for (Map<String, Object> range : ranges) {
+            long startDate = ((Number) range.get("startDate")).longValue();
+            long endDate = ((Number) range.get("endDate")).longValue();
+            prefetcher.prefetch(readKey("getEventsByDateRange", calendarId, startDate, endDate,
+                    EventFilter.key(filter)), generation,
+                    eventsByDateRange(operations, calendarId, startDate, endDate, filter,
+                            true));
+        }
+    }
+
+    private void sendIcsProgress(String operation, String path, String requestId,
+                                 int processed) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("type", "icsProgress");
+        event.put("operation", operation);
+        event.put("path", path);
+        event.put("requestId", requestId);
+        event.put("processed", processed);
+        eventStream.send(event);
+    }
+
+    private static Long toLong(Object value) {
+        return value != null ? ((Number) value).longValue() : null;
+    }
+
+    private static String readKey(String method, Object... arguments) {
+        StringBuilder key = new StringBuilder(method);
+        for (Object argument : arguments) {
+            key.append('|').append(argument);
+        }
+        return key.toString();
+    }
+
     private void addAttendees(String eventId, MethodCall call) {
         List<CalendarEvent.Attendee> attendees = new ArrayList<>();
         List<Map<String, Object>> jsonList = call.argument("attendees");
@@ -0,0 +1,173 @@
+package com.fantastic.manage_calendar_events;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.RemoteException;
+import android.provider.CalendarContract;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Holds one client of the calendar provider for the duration of a logical operation, so its
+ * queries and writes don't each resolve and acquire the provider again.
+ *
+ * A client mustn't be shared between threads, so sessions are confined to the thread which
+ * opened them: {@link #open} hands out the session already open on the calling thread, and the
+ * client is released once its outermost holder closes it. Helpers thus join the session of the
+ * operation they are called from, while each worker thread opens its own. Cursors have to be
+ * closed before the session they were queried through.
+ *
+ * Public for the ICS importer and exporter, which live in their own package.
+ */
+public final class ProviderSession implements AutoCloseable {
+
+    private static final ThreadLocal<ProviderSession> CURRENT = new ThreadLocal<>();
+
+    private final ContentResolver resolver;
+    // Null when the provider couldn't be acquired, calls then go through the resolver.
+    private final ContentProviderClient client;
+    private int holders = 1;
+
+    private ProviderSession(ContentResolver resolver, ContentProviderClient client) {
+        this.resolver = resolver;
+        this.client = client;
+    }
+
+    /**
+     * Returns the session open on the calling thread, or opens one. Every call has to be
+     * matched by a {@link #close}, typically through try-with-resources.
+     */
+    public static ProviderSession open(Context ctx) {
+        ProviderSession session = CURRENT.get();
+        if (session != null) {
+            session.holders++;
+            return session;
+        }
+        ContentResolver resolver = ctx.getContentResolver();
+        // The provider runs in its own process, a stable client would take ours down with it.
+        session = new ProviderSession(resolver,
+                resolver.acquireUnstableContentProviderClient(CalendarContract.AUTHORITY));
+        CURRENT.set(session);
+        return session;
+    }
+
+    Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                 String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Same as {@link ContentResolver#query}. Unlike the resolver a client can't recover from
+     * the provider process dying, so a failed query is retried through the resolver.
+     */
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal signal) {
+        if (client != null) {
+            try {
+                return client.query(uri, projection, selection, selectionArgs, sortOrder,
+                        signal);
+            } catch (RemoteException e) {
+                Log.w("ProviderSession", "Query failed, retrying through the resolver", e);
+            }
+        }
+        return resolver.query(uri, projection, selection, selectionArgs, sortOrder, signal);
+    }
+
+    /**
+     * Same as {@link ContentResolver#insert}, returns null if the provider died.
+     */
+    Uri insert(Uri uri, ContentValues values) {
+        if (client == null) {
+            return resolver.insert(uri, values);
+        }
+        try {
+            return client.insert(uri, values);
+        } catch (RemoteException e) {
+            Log.e("ProviderSession", "Insert failed", e);
+            return null;
+        }
+    }
+
+    /**
+     * Same as {@link ContentResolver#update}, except that 0 rows are reported if the provider
+     * died rather than the resolver's -1, so callers can't take the failure for a count.
+     */
+    int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        if (client == null) {
+            return Math.max(0, resolver.update(uri, values, selection, selectionArgs));
+        }
+        try {
+            return client.update(uri, values, selection, selectionArgs);
+        } catch (RemoteException e) {
+            Log.e("ProviderSession", "Update failed", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Same as {@link ContentResolver#delete}, except that 0 rows are reported if the provider
+     * died rather than the resolver's -1, so callers can't take the failure for a count.
+     */
+    int delete(Uri uri, String selection, String[] selectionArgs) {
+        if (client == null) {
+            return Math.max(0, resolver.delete(uri, selection, selectionArgs));
+        }
+        try {
+            return client.delete(uri, selection, selectionArgs);
+        } catch (RemoteException e) {
+            Log.e("ProviderSession", "Delete failed", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Same as {@link ContentResolver#bulkInsert}, returns 0 if the provider died.
+     */
+    int bulkInsert(Uri uri, ContentValues[] values) {
+        if (client == null) {
+            return resolver.bulkInsert(uri, values);
+        }
+        try {
+            return client.bulkInsert(uri, values);
+        } catch (RemoteException e) {
+            Log.e("ProviderSession", "Bulk insert failed", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Same as {@link ContentResolver#applyBatch} for the calendar provider. A batch isn't
+     * retried if the provider died, as some of its operations may have been applied.
+     */
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws RemoteException, OperationApplicationException {
+        if (client == null) {
+            return resolver.applyBatch(CalendarContract.AUTHORITY, operations);
+        }
+        return client.applyBatch(operations);
+    }
+
+    /**
+     * Releases the client once the outermost holder closes the session.
+     */
+    @Override
+    public void close() {
+        if (--holders > 0) {
+            return;
+        }
+        CURRENT.remove();
+        if (client != null) {
+            // close() only exists from API 24.
+            client.release();
+        }
+    }
+}
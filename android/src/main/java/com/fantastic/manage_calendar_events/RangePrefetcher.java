@@ -0,0 +1,188 @@
+package com.fantastic.manage_calendar_events;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads date windows the UI is likely to ask for next in the background and keeps their encoded
+ * documents in a bounded cache. An entry is only served while the provider is still at the
+ * change generation it was read at; any provider change drops the cache and aborts the reads
+ * in progress, whose results would be stale anyway.
+ *
+ * The reads run on a lowest priority thread, see {@link CalendarOperations} for how their
+ * enrichment is kept apart from the foreground reads'.
+ */
+final class RangePrefetcher implements CalendarChangeMonitor.Listener {
+
+    // Encoded documents are kept as Strings, two bytes per char.
+    private static final int CACHE_BYTES = 2 * 1024 * 1024;
+    // How often a foreground read waiting for a prefetch checks for its own cancellation.
+    private static final long AWAIT_POLL_MS = 50;
+
+    private static final class Entry {
+        final long generation;
+        final String json;
+
+        Entry(long generation, String json) {
+            this.generation = generation;
+            this.json = json;
+        }
+    }
+
+    private final LruCache<String, Entry> cache = new LruCache<String, Entry>(CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Entry entry) {
+            return entry.json.length() * 2;
+        }
+    };
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+            runnable.run();
+        }, "calendar-prefetch");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private static final class Pending {
+        final long generation;
+        final CountDownLatch done = new CountDownLatch(1);
+        // Null if the read failed or was aborted.
+        volatile String json;
+        // Guarded by the prefetcher. Set once the read started, or a foreground read took it
+        // over while it was still queued.
+        boolean started;
+        boolean taken;
+
+        Pending(long generation) {
+            this.generation = generation;
+        }
+    }
+
+    // Guarded by this.
+    private final Map<String, Pending> pending = new HashMap<>();
+    private CancellationSignal signal = new CancellationSignal();
+
+    /**
+     * Returns the prefetched document for the key if it was read at the given generation.
+     */
+    String get(String key, long generation) {
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.generation != generation) {
+            cache.remove(key);
+            return null;
+        }
+        return entry.json;
+    }
+
+    /**
+     * Waits for the prefetch of the key if one read at the given generation is running, so a
+     * foreground read of the same window doesn't read it a second time. A prefetch still queued
+     * behind others on the lowest priority thread is taken over instead: it is dropped and the
+     * caller reads the window itself, rather than waiting for the prefetches ahead of it.
+     *
+     * @return The prefetched document, null if there is no running prefetch or it failed
+     * @throws OperationCanceledException if the signal was cancelled while waiting
+     */
+    String await(String key, long generation, CancellationSignal signal)
+            throws InterruptedException {
+        Pending current;
+        synchronized (this) {
+            current = pending.get(key);
+            if (current == null || current.generation != generation) {
+                return null;
+            }
+            if (!current.started) {
+                current.taken = true;
+                pending.remove(key);
+                return null;
+            }
+        }
+        while (!current.done.await(AWAIT_POLL_MS, TimeUnit.MILLISECONDS)) {
+            signal.throwIfCanceled();
+        }
+        return current.json;
+    }
+
+    /**
+     * Schedules the read unless the key is already cached for this generation or being loaded.
+     *
+     * @param generation - Provider change generation observed before scheduling
+     */
+    void prefetch(final String key, final long generation, final ReadCoalescer.Read read) {
+        if (get(key, generation) != null) {
+            return;
+        }
+        final CancellationSignal current;
+        final Pending entry = new Pending(generation);
+        synchronized (this) {
+            Pending loading = pending.get(key);
+            if (loading != null && loading.generation == generation) {
+                return;
+            }
+            pending.put(key, entry);
+            current = signal;
+        }
+        executor.execute(() -> {
+            synchronized (this) {
+                if (entry.taken) {
+                    return;
+                }
+                entry.started = true;
+            }
+            try {
+                current.throwIfCanceled();
+                String json = (String) read.run(current);
+                cache.put(key, new Entry(generation, json));
+                entry.json = json;
+            } catch (OperationCanceledException e) {
+                // Cleared in the meantime.
+            } catch (Exception e) {
+                Log.w("RangePrefetcher", "Prefetch of " + key + " failed", e);
+            } finally {
+                synchronized (this) {
+                    if (pending.get(key) == entry) {
+                        pending.remove(key);
+                    }
+                }
+                entry.done.countDown();
+            }
+        });
+    }
+
+    /**
+     * Called on a binder thread for every provider change.
+     */
+    @Override
+    public void onCalendarChanged() {
+        clear();
+    }
+
+    /**
+     * Aborts the scheduled reads and drops every cached document.
+     */
+    synchronized void clear() {
+        signal.cancel();
+        signal = new CancellationSignal();
+        cache.evictAll();
+    }
+
+    void shutdown() {
+        clear();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,213 @@
+package com.fantastic.manage_calendar_events;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import io.flutter.plugin.common.MethodChannel.Result;
+
+/**
+ * Runs channel reads off the main thread, sharing one execution between identical reads that
+ * are in flight at the same time. Every waiting {@link Result} receives the same encoded
+ * document on the main thread.
+ *
+ * A read only joins a flight started at the same provider change generation, so nobody is
+ * handed data read before a change they could already observe. A waiter that cancels leaves
+ * its flight; the underlying read is only aborted once no waiter is left.
+ */
+final class ReadCoalescer {
+
+    interface Read {
+        Object run(CancellationSignal signal) throws Exception;
+    }
+
+    private static final class Waiter {
+        final String requestId;
+        final Result result;
+
+        Waiter(String requestId, Result result) {
+            this.requestId = requestId;
+            this.result = result;
+        }
+    }
+
+    private static final class Flight {
+        final String key;
+        final long generation;
+        final CancellationSignal signal = new CancellationSignal();
+        final List<Waiter> waiters = new ArrayList<>(1);
+
+        Flight(String key, long generation) {
+            this.key = key;
+            this.generation = generation;
+        }
+    }
+
+    private final Executor executor;
+    private final Handler mainHandler;
+
+    // Guarded by this.
+    private final Map<String, Flight> flights = new HashMap<>();
+    private final Map<String, Flight> flightsByRequestId = new HashMap<>();
+
+    ReadCoalescer(Executor executor, Handler mainHandler) {
+        this.executor = executor;
+        this.mainHandler = mainHandler;
+    }
+
+    /**
+     * Replies to the result with the value produced by the read.
+     *
+     * @param key - Identifies identical reads, null to never share the execution
+     * @param generation - Provider change generation the caller observed
+     * @param requestId - Id the read can be cancelled with, may be null
+     */
+    void execute(String key, long generation, String requestId, Result result, final Read read) {
+        execute(executor, key, generation, requestId, result, read);
+    }
+
+    /**
+     * Same as {@link #execute(String, long, String, Result, Read)} on the given executor, for
+     * long running work which shouldn't hold up the reads.
+     */
+    void execute(Executor executor, String key, long generation, String requestId,
+                 Result result, final Read read) {
+        final Flight flight;
+        synchronized (this) {
+            Flight current = key != null ? flights.get(key) : null;
+            if (current != null && current.generation == generation) {
+                join(current, requestId, result);
+                return;
+            }
+            flight = new Flight(key, generation);
+            if (key != null) {
+                flights.put(key, flight);
+            }
+            join(flight, requestId, result);
+        }
+
+        executor.execute(() -> {
+            Object reply = null;
+            Exception error = null;
+            try {
+                flight.signal.throwIfCanceled();
+                reply = read.run(flight.signal);
+            } catch (Exception e) {
+                error = e;
+            }
+            complete(flight, reply, error);
+        });
+    }
+
+    /**
+     * Cancels the read started with the given request id.
+     *
+     * @return false if no such read is pending
+     */
+    boolean cancel(String requestId) {
+        Waiter cancelled = null;
+        synchronized (this) {
+            Flight flight = flightsByRequestId.remove(requestId);
+            if (flight == null) {
+                return false;
+            }
+            for (int i = 0; i < flight.waiters.size(); i++) {
+                if (requestId.equals(flight.waiters.get(i).requestId)) {
+                    cancelled = flight.waiters.remove(i);
+                    break;
+                }
+            }
+            if (flight.waiters.isEmpty()) {
+                removeFlight(flight);
+                flight.signal.cancel();
+            }
+        }
+        if (cancelled != null) {
+            replyCancelled(cancelled);
+        }
+        return true;
+    }
+
+    /**
+     * Aborts every pending read without replying.
+     */
+    synchronized void cancelAll() {
+        for (Flight flight : flightsByRequestId.values()) {
+            flight.signal.cancel();
+        }
+        for (Flight flight : flights.values()) {
+            flight.signal.cancel();
+        }
+        flights.clear();
+        flightsByRequestId.clear();
+    }
+
+    private void join(Flight flight, String requestId, Result result) {
+        flight.waiters.add(new Waiter(requestId, result));
+        if (requestId != null) {
+            flightsByRequestId.put(requestId, flight);
+        }
+    }
+
+    // A newer flight may already have taken the key over after a provider change.
+    private void removeFlight(Flight flight) {
+        if (flight.key != null && flights.get(flight.key) == flight) {
+            flights.remove(flight.key);
+        }
+    }
+
+    private void complete(Flight flight, final Object reply, final Exception error) {
+        final List<Waiter> waiters;
+        synchronized (this) {
+            removeFlight(flight);
+            waiters = new ArrayList<>(flight.waiters);
+            flight.waiters.clear();
+            for (Waiter waiter : waiters) {
+                if (waiter.requestId != null) {
+                    flightsByRequestId.remove(waiter.requestId);
+                }
+            }
+        }
+        if (waiters.isEmpty()) {
+            return;
+        }
+
+        if (error == null) {
+            mainHandler.post(() -> {
+                for (Waiter waiter : waiters) {
+                    waiter.result.success(reply);
+                }
+            });
+        } else if (error instanceof OperationCanceledException) {
+            for (Waiter waiter : waiters) {
+                replyCancelled(waiter);
+            }
+        } else if (error instanceof SecurityException) {
+            // Typically a background engine reading before the permissions were granted.
+            mainHandler.post(() -> {
+                for (Waiter waiter : waiters) {
+                    waiter.result.error("PERMISSION_DENIED", error.getMessage(), null);
+                }
+            });
+        } else {
+            Log.e("DART/NATIVE", "Read failed", error);
+            mainHandler.post(() -> {
+                for (Waiter waiter : waiters) {
+                    waiter.result.error("READ_FAILED", error.getMessage(), null);
+                }
+            });
+        }
+    }
+
+    private void replyCancelled(final Waiter waiter) {
+        mainHandler.post(() -> waiter.result.error("CANCELLED",
+                "Request " + waiter.requestId + " was cancelled", null));
+    }
+}
@@ -0,0 +1,214 @@
+package com.fantastic.manage_calendar_events.ics;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * DATE and DATE-TIME conversions. {@link SimpleDateFormat} is not thread safe, so every reader
+ * and writer keeps its own instance.
+ */
+final class IcsDates {
+
+    static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private final SimpleDateFormat dateTime =
+            new SimpleDateFormat("yyyyMMdd'T'HHmmss", Locale.US);
+    private final SimpleDateFormat date = new SimpleDateFormat("yyyyMMdd", Locale.US);
+
+    IcsDates() {
+        date.setTimeZone(UTC);
+    }
+
+    /**
+     * Parses a DTSTART/DTEND style value. All-day values resolve to midnight UTC, as the
+     * calendar provider expects for all-day events.
+     *
+     * @param tzid - TZID parameter of the property, may be null for UTC or floating times
+     */
+    long parse(String value, String tzid) throws ParseException {
+        value = value.trim();
+        if (value.length() == 8) {
+            return date.parse(value).getTime();
+        }
+        TimeZone zone;
+        if (value.endsWith("Z")) {
+            zone = UTC;
+            value = value.substring(0, value.length() - 1);
+        } else if (tzid != null) {
+            zone = TimeZone.getTimeZone(tzid);
+        } else {
+            zone = TimeZone.getDefault();
+        }
+        dateTime.setTimeZone(zone);
+        return dateTime.parse(value).getTime();
+    }
+
+    String formatUtc(long millis) {
+        dateTime.setTimeZone(UTC);
+        return dateTime.format(new Date(millis)) + "Z";
+    }
+
+    /**
+     * Formats a DATE-TIME local to the zone, to write along with a TZID parameter.
+     */
+    String formatLocal(long millis, String tzid) {
+        dateTime.setTimeZone(TimeZone.getTimeZone(tzid));
+        return dateTime.format(new Date(millis));
+    }
+
+    String formatDate(long millis) {
+        return date.format(new Date(millis));
+    }
+
+    /**
+     * Parses a VALARM TRIGGER duration relative to the start, e.g. {@code -PT15M}, into minutes
+     * before the start. Returns -1 for triggers after the start or absolute triggers.
+     */
+    static int parseTriggerMinutes(String value) {
+        return minutesBefore(parseTriggerSeconds(value));
+    }
+
+    /**
+     * Parses a VALARM TRIGGER duration into signed seconds, negative before the start or end
+     * it is related to. Returns {@link Long#MIN_VALUE} for absolute or malformed triggers.
+     */
+    static long parseTriggerSeconds(String value) {
+        value = value.trim();
+        boolean before = value.startsWith("-");
+        if (value.startsWith("-") || value.startsWith("+")) {
+            value = value.substring(1);
+        }
+        if (!value.startsWith("P")) {
+            return Long.MIN_VALUE;
+        }
+        long seconds = parseDurationSeconds(value);
+        if (seconds < 0) {
+            return Long.MIN_VALUE;
+        }
+        return before ? -seconds : seconds;
+    }
+
+    /**
+     * Converts a trigger offset from the start into the reminder minutes the provider stores,
+     * -1 for alarms after the start or {@link Long#MIN_VALUE}.
+     */
+    static int minutesBefore(long seconds) {
+        if (seconds == Long.MIN_VALUE || seconds > 0) {
+            return -1;
+        }
+        return (int) (-seconds / 60);
+    }
+
+    /**
+     * Formats a length in RFC 5545 form, e.g. {@code PT1H30M}. Whole days are only used for
+     * all-day events, a day of a timed event being 24 hours only when there is no DST change.
+     */
+    static String formatDuration(long seconds, boolean useDays) {
+        StringBuilder duration = new StringBuilder("P");
+        if (useDays && seconds >= 86400) {
+            duration.append(seconds / 86400).append('D');
+            seconds %= 86400;
+            if (seconds == 0) {
+                return duration.toString();
+            }
+        }
+        duration.append('T');
+        long hours = seconds / 3600;
+        long minutes = seconds / 60 % 60;
+        if (hours > 0) {
+            duration.append(hours).append('H');
+        }
+        if (minutes > 0) {
+            duration.append(minutes).append('M');
+        }
+        if (seconds % 60 > 0 || (hours == 0 && minutes == 0)) {
+            duration.append(seconds % 60).append('S');
+        }
+        return duration.toString();
+    }
+
+    /**
+     * Parses an unsigned RFC 5545 duration such as {@code P1DT2H} into seconds, -1 if malformed.
+     * The time designator is optional, so the provider's {@code P3600S} form is read as well.
+     */
+    static long parseDurationSeconds(String value) {
+        long seconds = 0;
+        long number = 0;
+        boolean hasNumber = false;
+        for (int i = 1; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                number = number * 10 + (c - '0');
+                hasNumber = true;
+                continue;
+            }
+            if (c == 'T') {
+                continue;
+            }
+            if (!hasNumber) {
+                return -1;
+            }
+            switch (c) {
+                case 'W': seconds += number * 7 * 86400; break;
+                case 'D': seconds += number * 86400; break;
+                case 'H': seconds += number * 3600; break;
+                case 'M': seconds += number * 60; break;
+                case 'S': seconds += number; break;
+                default: return -1;
+            }
+            number = 0;
+            hasNumber = false;
+        }
+        return seconds;
+    }
+
+    /**
+     * Returns the instants in the year, UTC, at which the zone changes its offset.
+     */
+    static List<Long> transitions(TimeZone zone, int year) {
+        List<Long> transitions = new ArrayList<>(2);
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.clear();
+        calendar.set(year, Calendar.JANUARY, 1);
+        long time = calendar.getTimeInMillis();
+        calendar.add(Calendar.YEAR, 1);
+        long end = calendar.getTimeInMillis();
+        int offset = zone.getOffset(time);
+        while (time < end) {
+            long next = Math.min(time + 86400000L, end);
+            if (zone.getOffset(next) != offset) {
+                // The offset is the old one at low and the new one at high.
+                long low = time;
+                long high = next;
+                while (high - low > 1) {
+                    long middle = low + (high - low) / 2;
+                    if (zone.getOffset(middle) == offset) {
+                        low = middle;
+                    } else {
+                        high = middle;
+                    }
+                }
+                transitions.add(high);
+                offset = zone.getOffset(high);
+                next = high;
+            }
+            time = next;
+        }
+        return transitions;
+    }
+
+    /**
+     * Formats a UTC offset as in TZOFFSETFROM and TZOFFSETTO, e.g. {@code +0130}.
+     */
+    static String formatOffset(int millis) {
+        int minutes = Math.abs(millis) / 60000;
+        return String.format(Locale.ROOT, "%s%02d%02d", millis < 0 ? "-" : "+", minutes / 60,
+                minutes % 60);
+    }
+}
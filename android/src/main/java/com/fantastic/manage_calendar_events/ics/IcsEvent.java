@@ -0,0 +1,66 @@
+package com.fantastic.manage_calendar_events.ics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parts of a VEVENT the calendar provider can store.
+ */
+public final class IcsEvent {
+
+    public static final class Attendee {
+        public final String name;
+        public final String emailAddress;
+        public final boolean isOrganiser;
+
+        Attendee(String name, String emailAddress, boolean isOrganiser) {
+            this.name = name;
+            this.emailAddress = emailAddress;
+            this.isOrganiser = isOrganiser;
+        }
+    }
+
+    public String uid;
+    public String title;
+    public String description;
+    public String location;
+    public String url;
+    public long startDate;
+    /** -1 when the event has no DTEND. */
+    public long endDate = -1;
+    /** RFC 5545 duration, only set when the event had a DURATION instead of a DTEND. */
+    public String duration;
+    public boolean isAllDay;
+    /** Olson id the times are local to, null for UTC or floating times. */
+    public String timeZone;
+    public String rRule;
+    /** Start of the occurrences of {@link #rRule} which are left out. */
+    public final List<Long> exDates = new ArrayList<>(0);
+    /**
+     * RECURRENCE-ID: original start of the occurrence of the series with the same {@link #uid}
+     * which this event replaces, -1 for a series or a one-off event.
+     */
+    public long originalStartDate = -1;
+    public boolean originalAllDay;
+    /** TENTATIVE, CONFIRMED or CANCELLED, null if unknown. */
+    public String status;
+    public final List<Integer> reminderMinutes = new ArrayList<>(1);
+    public final List<Attendee> attendees = new ArrayList<>(0);
+
+    /**
+     * Returns the end from DTEND, else from DURATION, else the RFC 5545 default: a day after a
+     * DATE start, the start itself for a DATE-TIME.
+     */
+    long resolveEndDate() {
+        if (endDate >= 0) {
+            return endDate;
+        }
+        if (duration != null) {
+            long seconds = IcsDates.parseDurationSeconds(duration);
+            if (seconds >= 0) {
+                return startDate + seconds * 1000;
+            }
+        }
+        return isAllDay ? startDate + 86400000L : startDate;
+    }
+}
@@ -0,0 +1,283 @@
+package com.fantastic.manage_calendar_events.ics;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.provider.CalendarContract.Attendees;
+import android.provider.CalendarContract.Events;
+import android.provider.CalendarContract.Reminders;
+import android.util.Log;
+
+import com.fantastic.manage_calendar_events.ProviderSession;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Exports the events of one or more calendars as an iCalendar stream. Events are streamed from
+ * the provider in chunks; the reminders and attendees of a chunk are fetched with one query
+ * each, so memory use stays bounded by the chunk size. The changed and cancelled occurrences
+ * the provider stores as exceptions of a recurring event are written as VEVENTs with the UID
+ * of their series and a RECURRENCE-ID.
+ */
+public final class IcsExporter {
+
+    public interface ProgressListener {
+        void onProgress(int processed);
+    }
+
+    private static final int EVENTS_PER_CHUNK = 200;
+
+    private static final String[] EVENT_PROJECTION = {
+            Events._ID,
+            Events.TITLE,
+            Events.DESCRIPTION,
+            Events.EVENT_LOCATION,
+            Events.CUSTOM_APP_URI,
+            Events.DTSTART,
+            Events.DTEND,
+            Events.DURATION,
+            Events.ALL_DAY,
+            Events.RRULE,
+            Events.UID_2445,
+            Events.EVENT_TIMEZONE,
+            Events.ORIGINAL_ID,
+            Events.ORIGINAL_INSTANCE_TIME,
+            Events.ORIGINAL_ALL_DAY,
+            Events.EXDATE,
+            Events.STATUS,
+    };
+
+    private final Context ctx;
+    private final IcsDates dates = new IcsDates();
+
+    public IcsExporter(Context ctx) {
+        this.ctx = ctx;
+    }
+
+    /**
+     * @param startDate - Only events overlapping the range are exported, null for no lower bound
+     * @param endDate - Null for no upper bound
+     * @return Number of events written
+     */
+    public int export(List<String> calendarIds, Long startDate, Long endDate, IcsWriter writer,
+                      ProgressListener listener, CancellationSignal signal) throws IOException {
+        StringBuilder selection = new StringBuilder(Events.CALENDAR_ID).append(" IN (");
+        List<String> args = new ArrayList<>(calendarIds.size() + 3);
+        for (int i = 0; i < calendarIds.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            args.add(calendarIds.get(i));
+        }
+        selection.append(") AND ").append(Events.DELETED).append(" != 1");
+        if (endDate != null) {
+            selection.append(" AND ").append(Events.DTSTART).append(" <= ?");
+            args.add(String.valueOf(endDate));
+        }
+        if (startDate != null) {
+            selection.append(" AND (").append(Events.RRULE).append(" IS NOT NULL OR ")
+                    .append(Events.DTEND).append(" >= ?)");
+            args.add(String.valueOf(startDate));
+        }
+
+        writer.beginCalendar();
+        int written = 0;
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            Cursor cur = session.query(Events.CONTENT_URI, EVENT_PROJECTION, selection.toString(),
+                    args.toArray(new String[0]), Events._ID + " ASC", signal);
+            if (cur != null) {
+                try {
+                    Map<String, IcsEvent> chunk = new LinkedHashMap<>();
+                    // Exceptions of the chunk, to the id of their series.
+                    Map<IcsEvent, String> exceptions = new HashMap<>();
+                    while (cur.moveToNext()) {
+                        IcsEvent event = readEvent(cur);
+                        chunk.put(cur.getString(0), event);
+                        if (!cur.isNull(12)) {
+                            exceptions.put(event, cur.getString(12));
+                        }
+                        if (chunk.size() == EVENTS_PER_CHUNK) {
+                            written += writeChunk(session, chunk, exceptions, writer, signal);
+                            notify(listener, written);
+                        }
+                    }
+                    if (!chunk.isEmpty()) {
+                        written += writeChunk(session, chunk, exceptions, writer, signal);
+                        notify(listener, written);
+                    }
+                } finally {
+                    cur.close();
+                }
+            }
+        }
+        writer.endCalendar();
+        writer.flush();
+        return written;
+    }
+
+    private static void notify(ProgressListener listener, int written) {
+        if (listener != null) {
+            listener.onProgress(written);
+        }
+    }
+
+    private IcsEvent readEvent(Cursor cur) {
+        IcsEvent event = new IcsEvent();
+        event.uid = uid(cur.getString(0), cur.getString(10));
+        event.title = cur.getString(1);
+        event.description = cur.getString(2);
+        event.location = cur.getString(3);
+        event.url = cur.getString(4);
+        event.startDate = cur.getLong(5);
+        event.endDate = cur.isNull(6) ? -1 : cur.getLong(6);
+        event.duration = cur.getString(7);
+        event.isAllDay = cur.getInt(8) != 0;
+        event.rRule = cur.getString(9);
+        boolean exception = !cur.isNull(12);
+        if (exception) {
+            event.originalStartDate = cur.getLong(13);
+            event.originalAllDay = cur.getInt(14) != 0;
+        }
+        // The occurrences of a timed series follow its zone's daylight saving time, which a
+        // UTC start would lose.
+        String timeZone = cur.getString(11);
+        if ((event.rRule != null || exception) && !event.isAllDay && timeZone != null
+                && !timeZone.equals("UTC")
+                && TimeZone.getTimeZone(timeZone).getID().equals(timeZone)) {
+            event.timeZone = timeZone;
+        }
+        if (event.rRule != null && !cur.isNull(15)) {
+            readExDates(cur.getString(15), event);
+        }
+        if (!cur.isNull(16)) {
+            switch (cur.getInt(16)) {
+                case Events.STATUS_TENTATIVE:
+                    event.status = "TENTATIVE";
+                    break;
+                case Events.STATUS_CONFIRMED:
+                    event.status = "CONFIRMED";
+                    break;
+                case Events.STATUS_CANCELED:
+                    event.status = "CANCELLED";
+                    break;
+                default:
+                    break;
+            }
+        }
+        return event;
+    }
+
+    private static String uid(String eventId, String uid) {
+        return uid != null ? uid : eventId + "@manage_calendar_events";
+    }
+
+    /**
+     * Reads the provider's EXDATE column: comma separated values, prefixed by {@code TZID;}
+     * when they are local times.
+     */
+    private void readExDates(String column, IcsEvent event) {
+        String timeZone = null;
+        int separator = column.indexOf(';');
+        if (separator != -1) {
+            timeZone = column.substring(0, separator);
+            column = column.substring(separator + 1);
+        }
+        for (String value : column.split(",")) {
+            if (value.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                event.exDates.add(dates.parse(value, timeZone));
+            } catch (ParseException e) {
+                Log.w("IcsExporter", "Skipping malformed EXDATE " + value);
+            }
+        }
+    }
+
+    private int writeChunk(ProviderSession session, Map<String, IcsEvent> chunk,
+                           Map<IcsEvent, String> exceptions, IcsWriter writer,
+                           CancellationSignal signal) throws IOException {
+        String[] ids = chunk.keySet().toArray(new String[0]);
+        String in = inSelection(ids.length);
+
+        // An exception carries the UID of its series, which may be in another chunk.
+        if (!exceptions.isEmpty()) {
+            String[] seriesIds = new HashSet<>(exceptions.values()).toArray(new String[0]);
+            Map<String, String> uids = new HashMap<>();
+            Cursor series = session.query(Events.CONTENT_URI,
+                    new String[]{Events._ID, Events.UID_2445},
+                    Events._ID + inSelection(seriesIds.length), seriesIds, null, signal);
+            if (series != null) {
+                try {
+                    while (series.moveToNext()) {
+                        uids.put(series.getString(0), uid(series.getString(0),
+                                series.getString(1)));
+                    }
+                } finally {
+                    series.close();
+                }
+            }
+            for (Map.Entry<IcsEvent, String> exception : exceptions.entrySet()) {
+                String uid = uids.get(exception.getValue());
+                exception.getKey().uid = uid != null ? uid : uid(exception.getValue(), null);
+            }
+            exceptions.clear();
+        }
+
+        Cursor reminders = session.query(Reminders.CONTENT_URI,
+                new String[]{Reminders.EVENT_ID, Reminders.MINUTES},
+                Reminders.EVENT_ID + in, ids, null, signal);
+        if (reminders != null) {
+            try {
+                while (reminders.moveToNext()) {
+                    IcsEvent event = chunk.get(reminders.getString(0));
+                    if (event != null) {
+                        event.reminderMinutes.add(reminders.getInt(1));
+                    }
+                }
+            } finally {
+                reminders.close();
+            }
+        }
+
+        Cursor attendees = session.query(Attendees.CONTENT_URI,
+                new String[]{Attendees.EVENT_ID, Attendees.ATTENDEE_NAME,
+                        Attendees.ATTENDEE_EMAIL, Attendees.ATTENDEE_RELATIONSHIP},
+                Attendees.EVENT_ID + in, ids, null, signal);
+        if (attendees != null) {
+            try {
+                while (attendees.moveToNext()) {
+                    IcsEvent event = chunk.get(attendees.getString(0));
+                    if (event != null) {
+                        event.attendees.add(new IcsEvent.Attendee(attendees.getString(1),
+                                attendees.getString(2),
+                                attendees.getInt(3) == Attendees.RELATIONSHIP_ORGANIZER));
+                    }
+                }
+            } finally {
+                attendees.close();
+            }
+        }
+
+        for (IcsEvent event : chunk.values()) {
+            writer.writeEvent(event);
+        }
+        int size = chunk.size();
+        chunk.clear();
+        return size;
+    }
+
+    private static String inSelection(int count) {
+        StringBuilder in = new StringBuilder(" IN (");
+        for (int i = 0; i < count; i++) {
+            in.append(i == 0 ? "?" : ",?");
+        }
+        return in.append(')').toString();
+    }
+}
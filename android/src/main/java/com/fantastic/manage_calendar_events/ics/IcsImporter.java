@@ -0,0 +1,273 @@
+package com.fantastic.manage_calendar_events.ics;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.os.CancellationSignal;
+import android.os.RemoteException;
+import android.provider.CalendarContract.Attendees;
+import android.provider.CalendarContract.Events;
+import android.provider.CalendarContract.Reminders;
+
+import com.fantastic.manage_calendar_events.ProviderSession;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Imports the VEVENTs of an iCalendar stream into a calendar. Events are read one at a time and
+ * written with their reminders and attendees through chunked {@code applyBatch} transactions,
+ * so memory use does not grow with the size of the file.
+ *
+ * VEVENTs with a RECURRENCE-ID are stored as exceptions of the series with the same UID, and
+ * need the series in the same file. The ids of the last {@value #MAX_SERIES} imported series
+ * are kept for that, along with up to {@value #MAX_ORPHANS} exceptions read before their
+ * series; exceptions beyond those limits are skipped, so memory use stays bounded.
+ */
+public final class IcsImporter {
+
+    public interface ProgressListener {
+        void onProgress(int processed);
+    }
+
+    public static final class Summary {
+        public final int imported;
+        public final int skipped;
+
+        Summary(int imported, int skipped) {
+            this.imported = imported;
+            this.skipped = skipped;
+        }
+    }
+
+    private static final int EVENTS_PER_BATCH = 50;
+    // Keeps a batch well below the binder transaction limit.
+    private static final int MAX_OPERATIONS_PER_BATCH = 400;
+    private static final int MAX_SERIES = 10000;
+    private static final int MAX_ORPHANS = 1000;
+
+    private final Context ctx;
+    private final String calendarId;
+    private final IcsDates dates = new IcsDates();
+
+    public IcsImporter(Context ctx, String calendarId) {
+        this.ctx = ctx;
+        this.calendarId = calendarId;
+    }
+
+    /**
+     * @param signal - Stops the import between two batches once cancelled, may be null. Batches
+     *               which were already applied are kept.
+     */
+    public Summary importFrom(IcsReader reader, ProgressListener listener,
+                              CancellationSignal signal)
+            throws IOException, RemoteException, OperationApplicationException {
+        try (ProviderSession session = ProviderSession.open(ctx)) {
+            Batch batch = new Batch(session);
+            List<IcsEvent> orphans = new ArrayList<>();
+            int imported = 0;
+            int orphansSkipped = 0;
+            IcsEvent event;
+            while ((event = reader.next()) != null) {
+                if (event.originalStartDate >= 0 && !batch.hasSeries(event.uid)) {
+                    if (orphans.size() < MAX_ORPHANS) {
+                        orphans.add(event);
+                    } else {
+                        orphansSkipped++;
+                    }
+                    continue;
+                }
+                addOperations(batch, event);
+                if (batch.isFull()) {
+                    if (signal != null) {
+                        signal.throwIfCanceled();
+                    }
+                    imported += batch.apply();
+                    if (listener != null) {
+                        listener.onProgress(imported);
+                    }
+                }
+            }
+            // Exceptions listed before their series.
+            int skipped = reader.getSkipped() + orphansSkipped;
+            for (IcsEvent exception : orphans) {
+                if (!batch.hasSeries(exception.uid)) {
+                    skipped++;
+                    continue;
+                }
+                addOperations(batch, exception);
+                if (batch.isFull()) {
+                    if (signal != null) {
+                        signal.throwIfCanceled();
+                    }
+                    imported += batch.apply();
+                    if (listener != null) {
+                        listener.onProgress(imported);
+                    }
+                }
+            }
+            if (batch.events > 0) {
+                imported += batch.apply();
+                if (listener != null) {
+                    listener.onProgress(imported);
+                }
+            }
+            return new Summary(imported, skipped);
+        }
+    }
+
+    /**
+     * The operations not applied yet, and the series they reference.
+     */
+    private final class Batch {
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        int events;
+        // Series by UID: the index of their insert while in the batch, their id once applied.
+        final Map<String, Integer> pendingSeries = new HashMap<>();
+        // The most recently imported series, the older ones being forgotten.
+        final Map<String, Long> seriesIds = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > MAX_SERIES;
+            }
+        };
+        private final ProviderSession session;
+
+        Batch(ProviderSession session) {
+            this.session = session;
+        }
+
+        boolean isFull() {
+            return events == EVENTS_PER_BATCH || operations.size() >= MAX_OPERATIONS_PER_BATCH;
+        }
+
+        boolean hasSeries(String uid) {
+            return pendingSeries.containsKey(uid) || seriesIds.containsKey(uid);
+        }
+
+        int apply() throws RemoteException, OperationApplicationException {
+            ContentProviderResult[] results = session.applyBatch(operations);
+            for (Map.Entry<String, Integer> series : pendingSeries.entrySet()) {
+                seriesIds.put(series.getKey(),
+                        ContentUris.parseId(results[series.getValue()].uri));
+            }
+            int applied = events;
+            pendingSeries.clear();
+            operations.clear();
+            events = 0;
+            return applied;
+        }
+    }
+
+    private void addOperations(Batch batch, IcsEvent event) {
+        ArrayList<ContentProviderOperation> operations = batch.operations;
+        int eventIndex = operations.size();
+
+        String timeZone = event.isAllDay ? "UTC"
+                : (event.timeZone != null ? TimeZone.getTimeZone(event.timeZone)
+                : TimeZone.getDefault()).getID();
+        ContentProviderOperation.Builder insert = ContentProviderOperation
+                .newInsert(Events.CONTENT_URI)
+                .withYieldAllowed(true)
+                .withValue(Events.CALENDAR_ID, calendarId)
+                .withValue(Events.TITLE, event.title)
+                .withValue(Events.DESCRIPTION, event.description)
+                .withValue(Events.EVENT_LOCATION, event.location)
+                .withValue(Events.CUSTOM_APP_URI, event.url)
+                .withValue(Events.DTSTART, event.startDate)
+                .withValue(Events.EVENT_TIMEZONE, timeZone)
+                .withValue(Events.ALL_DAY, event.isAllDay ? 1 : 0)
+                .withValue(Events.HAS_ALARM, event.reminderMinutes.isEmpty() ? 0 : 1)
+                .withValue(Events.UID_2445, event.uid);
+        if (event.originalStartDate >= 0) {
+            Integer seriesIndex = batch.pendingSeries.get(event.uid);
+            if (seriesIndex != null) {
+                insert.withValueBackReference(Events.ORIGINAL_ID, seriesIndex);
+            } else {
+                insert.withValue(Events.ORIGINAL_ID, batch.seriesIds.get(event.uid));
+            }
+            insert.withValue(Events.ORIGINAL_INSTANCE_TIME, event.originalStartDate)
+                    .withValue(Events.ORIGINAL_ALL_DAY, event.originalAllDay ? 1 : 0);
+        }
+        Integer status = status(event.status);
+        if (status != null) {
+            insert.withValue(Events.STATUS, status);
+        }
+        if (event.rRule != null) {
+            // The provider wants a DURATION instead of a DTEND on recurring events.
+            insert.withValue(Events.RRULE, event.rRule)
+                    .withValue(Events.DURATION, event.duration != null ? event.duration
+                            : duration(event));
+            if (!event.exDates.isEmpty()) {
+                insert.withValue(Events.EXDATE, exDates(event.exDates));
+            }
+            if (event.uid != null && event.originalStartDate < 0) {
+                batch.pendingSeries.put(event.uid, eventIndex);
+            }
+        } else {
+            insert.withValue(Events.DTEND, event.resolveEndDate());
+        }
+        operations.add(insert.build());
+        batch.events++;
+
+        for (Integer minutes : event.reminderMinutes) {
+            operations.add(ContentProviderOperation.newInsert(Reminders.CONTENT_URI)
+                    .withValueBackReference(Reminders.EVENT_ID, eventIndex)
+                    .withValue(Reminders.MINUTES, minutes)
+                    .withValue(Reminders.METHOD, Reminders.METHOD_ALERT)
+                    .build());
+        }
+        for (IcsEvent.Attendee attendee : event.attendees) {
+            operations.add(ContentProviderOperation.newInsert(Attendees.CONTENT_URI)
+                    .withValueBackReference(Attendees.EVENT_ID, eventIndex)
+                    .withValue(Attendees.ATTENDEE_NAME, attendee.name)
+                    .withValue(Attendees.ATTENDEE_EMAIL, attendee.emailAddress)
+                    .withValue(Attendees.ATTENDEE_RELATIONSHIP, attendee.isOrganiser
+                            ? Attendees.RELATIONSHIP_ORGANIZER
+                            : Attendees.RELATIONSHIP_ATTENDEE)
+                    .build());
+        }
+    }
+
+    private static Integer status(String status) {
+        if ("TENTATIVE".equals(status)) {
+            return Events.STATUS_TENTATIVE;
+        }
+        if ("CONFIRMED".equals(status)) {
+            return Events.STATUS_CONFIRMED;
+        }
+        if ("CANCELLED".equals(status)) {
+            return Events.STATUS_CANCELED;
+        }
+        return null;
+    }
+
+    /**
+     * Formats the EXDATE column the way the provider reads it, as comma separated UTC times.
+     */
+    private String exDates(List<Long> exDates) {
+        StringBuilder column = new StringBuilder();
+        for (long exDate : exDates) {
+            if (column.length() > 0) {
+                column.append(',');
+            }
+            column.append(dates.formatUtc(exDate));
+        }
+        return column.toString();
+    }
+
+    private static String duration(IcsEvent event) {
+        long millis = Math.max(0, event.resolveEndDate() - event.startDate);
+        if (event.isAllDay) {
+            return IcsDates.formatDuration(Math.max(1, millis / 86400000L) * 86400, true);
+        }
+        return IcsDates.formatDuration(millis / 1000, false);
+    }
+}
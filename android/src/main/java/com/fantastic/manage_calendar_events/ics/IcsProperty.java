@@ -0,0 +1,120 @@
+package com.fantastic.manage_calendar_events.ics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One unfolded content line of an iCalendar stream: {@code NAME;PARAM=VALUE:value}.
+ * Names and parameter names are upper-cased, the value is kept as written.
+ */
+public final class IcsProperty {
+
+    private final String name;
+    private final Map<String, String> parameters;
+    private final String value;
+
+    IcsProperty(String name, Map<String, String> parameters, String value) {
+        this.name = name;
+        this.parameters = parameters;
+        this.value = value;
+    }
+
+    /**
+     * Parses an unfolded content line, returns null if it has no value separator.
+     */
+    static IcsProperty parse(String line) {
+        int nameEnd = -1;
+        int valueStart = -1;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && c == ';' && nameEnd == -1) {
+                nameEnd = i;
+            } else if (!quoted && c == ':') {
+                valueStart = i + 1;
+                if (nameEnd == -1) {
+                    nameEnd = i;
+                }
+                break;
+            }
+        }
+        if (valueStart == -1) {
+            return null;
+        }
+
+        String name = line.substring(0, nameEnd).trim().toUpperCase(Locale.ROOT);
+        Map<String, String> parameters = Collections.emptyMap();
+        if (nameEnd < valueStart - 1) {
+            parameters = new HashMap<>();
+            for (String parameter : splitParameters(line.substring(nameEnd + 1, valueStart - 1))) {
+                int eq = parameter.indexOf('=');
+                if (eq > 0) {
+                    String parameterValue = parameter.substring(eq + 1);
+                    if (parameterValue.length() >= 2 && parameterValue.startsWith("\"")
+                            && parameterValue.endsWith("\"")) {
+                        parameterValue = parameterValue.substring(1, parameterValue.length() - 1);
+                    }
+                    parameters.put(parameter.substring(0, eq).trim().toUpperCase(Locale.ROOT),
+                            parameterValue);
+                }
+            }
+        }
+        return new IcsProperty(name, parameters, line.substring(valueStart));
+    }
+
+    private static String[] splitParameters(String parameters) {
+        List<String> parts = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < parameters.length(); i++) {
+            char c = parameters.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ';' && !quoted) {
+                parts.add(parameters.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(parameters.substring(start));
+        return parts.toArray(new String[0]);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getParameter(String name) {
+        return parameters.get(name);
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the value with the TEXT escapes ({@code \\n}, {@code \\,}, {@code \;},
+     * {@code \\\\}) resolved.
+     */
+    public String getText() {
+        if (value.indexOf('\\') == -1) {
+            return value;
+        }
+        StringBuilder text = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                text.append(next == 'n' || next == 'N' ? '\n' : next);
+            } else {
+                text.append(c);
+            }
+        }
+        return text.toString();
+    }
+}
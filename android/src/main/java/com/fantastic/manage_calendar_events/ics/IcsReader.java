@@ -0,0 +1,202 @@
+package com.fantastic.manage_calendar_events.ics;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Pulls VEVENTs out of an iCalendar stream one at a time, so a file of any size is read with
+ * a single event in memory. Folded lines are unfolded on the fly; other components
+ * (VTIMEZONE, VTODO...) are skipped.
+ */
+public final class IcsReader implements Closeable {
+
+    private final BufferedReader reader;
+    private final IcsDates dates = new IcsDates();
+    private String lookahead;
+    private int skipped;
+
+    public IcsReader(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader
+                : new BufferedReader(reader);
+    }
+
+    /**
+     * Returns the next event, or null at the end of the stream.
+     */
+    public IcsEvent next() throws IOException {
+        String line;
+        while ((line = nextLine()) != null) {
+            if (line.equalsIgnoreCase("BEGIN:VEVENT")) {
+                IcsEvent event = readEvent();
+                if (event != null) {
+                    return event;
+                }
+                skipped++;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of VEVENTs which could not be read, so far.
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    private IcsEvent readEvent() throws IOException {
+        IcsEvent event = new IcsEvent();
+        boolean hasStart = false;
+        boolean valid = true;
+        int depth = 0;
+        // Alarms relative to the end, in seconds from it.
+        List<Long> endTriggers = new ArrayList<>(0);
+        String line;
+        while ((line = nextLine()) != null) {
+            IcsProperty property = IcsProperty.parse(line);
+            if (property == null) {
+                continue;
+            }
+            String name = property.getName();
+            if (name.equals("BEGIN")) {
+                depth++;
+                continue;
+            }
+            if (name.equals("END")) {
+                if (depth == 0) {
+                    if (!valid || !hasStart) {
+                        return null;
+                    }
+                    long length = event.resolveEndDate() - event.startDate;
+                    for (long seconds : endTriggers) {
+                        if (seconds != Long.MIN_VALUE) {
+                            int minutes = IcsDates.minutesBefore(length / 1000 + seconds);
+                            if (minutes >= 0) {
+                                event.reminderMinutes.add(minutes);
+                            }
+                        }
+                    }
+                    return event;
+                }
+                depth--;
+                continue;
+            }
+            if (depth > 0) {
+                // Only alarms are read from nested components.
+                if (name.equals("TRIGGER") && property.getParameter("VALUE") == null) {
+                    if ("END".equalsIgnoreCase(property.getParameter("RELATED"))) {
+                        // The end may only be known once the whole event is read.
+                        endTriggers.add(IcsDates.parseTriggerSeconds(property.getValue()));
+                    } else {
+                        int minutes = IcsDates.parseTriggerMinutes(property.getValue());
+                        if (minutes >= 0) {
+                            event.reminderMinutes.add(minutes);
+                        }
+                    }
+                }
+                continue;
+            }
+            try {
+                switch (name) {
+                    case "UID":
+                        event.uid = property.getText();
+                        break;
+                    case "SUMMARY":
+                        event.title = property.getText();
+                        break;
+                    case "DESCRIPTION":
+                        event.description = property.getText();
+                        break;
+                    case "LOCATION":
+                        event.location = property.getText();
+                        break;
+                    case "URL":
+                        event.url = property.getValue();
+                        break;
+                    case "DTSTART":
+                        event.isAllDay = "DATE".equalsIgnoreCase(property.getParameter("VALUE"))
+                                || property.getValue().trim().length() == 8;
+                        event.timeZone = property.getParameter("TZID");
+                        event.startDate = dates.parse(property.getValue(), event.timeZone);
+                        hasStart = true;
+                        break;
+                    case "DTEND":
+                        event.endDate = dates.parse(property.getValue(),
+                                property.getParameter("TZID"));
+                        break;
+                    case "DURATION":
+                        event.duration = property.getValue().trim();
+                        break;
+                    case "RRULE":
+                        event.rRule = property.getValue().trim();
+                        break;
+                    case "EXDATE":
+                        for (String value : property.getValue().split(",")) {
+                            if (!value.trim().isEmpty()) {
+                                event.exDates.add(dates.parse(value,
+                                        property.getParameter("TZID")));
+                            }
+                        }
+                        break;
+                    case "RECURRENCE-ID":
+                        event.originalAllDay =
+                                "DATE".equalsIgnoreCase(property.getParameter("VALUE"))
+                                        || property.getValue().trim().length() == 8;
+                        event.originalStartDate = dates.parse(property.getValue(),
+                                property.getParameter("TZID"));
+                        break;
+                    case "STATUS":
+                        event.status = property.getValue().trim().toUpperCase(Locale.ROOT);
+                        break;
+                    case "ORGANIZER":
+                    case "ATTENDEE":
+                        String email = property.getValue().trim();
+                        if (email.regionMatches(true, 0, "mailto:", 0, 7)) {
+                            email = email.substring(7);
+                        }
+                        event.attendees.add(new IcsEvent.Attendee(property.getParameter("CN"),
+                                email, name.equals("ORGANIZER")));
+                        break;
+                    default:
+                        break;
+                }
+            } catch (ParseException e) {
+                valid = false;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the next unfolded content line.
+     */
+    private String nextLine() throws IOException {
+        String line = lookahead != null ? lookahead : reader.readLine();
+        lookahead = null;
+        if (line == null) {
+            return null;
+        }
+        StringBuilder unfolded = null;
+        String next;
+        while ((next = reader.readLine()) != null
+                && !next.isEmpty() && (next.charAt(0) == ' ' || next.charAt(0) == '\t')) {
+            if (unfolded == null) {
+                unfolded = new StringBuilder(line);
+            }
+            unfolded.append(next, 1, next.length());
+        }
+        lookahead = next;
+        return unfolded != null ? unfolded.toString() : line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,258 @@
+package com.fantastic.manage_calendar_events.ics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Writes an iCalendar stream line by line, folding lines longer than 75 characters and
+ * escaping TEXT values. Every zone referenced by a TZID parameter gets its VTIMEZONE, written
+ * by {@link #endCalendar}.
+ */
+public final class IcsWriter implements Closeable {
+
+    private static final int MAX_LINE = 75;
+    // By Calendar.DAY_OF_WEEK.
+    private static final String[] WEEKDAYS = {null, "SU", "MO", "TU", "WE", "TH", "FR", "SA"};
+
+    private final Writer writer;
+    private final IcsDates dates = new IcsDates();
+    // Zones referenced so far, in order.
+    private final Set<String> timeZones = new LinkedHashSet<>();
+
+    public IcsWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    public void begin(String component) throws IOException {
+        line("BEGIN:" + component);
+    }
+
+    public void end(String component) throws IOException {
+        line("END:" + component);
+    }
+
+    public void beginCalendar() throws IOException {
+        begin("VCALENDAR");
+        line("VERSION:2.0");
+        line("PRODID:-//manage_calendar_events//EN");
+    }
+
+    /**
+     * Writes the VTIMEZONEs of the zones the events referenced, and ends the calendar.
+     */
+    public void endCalendar() throws IOException {
+        int year = Calendar.getInstance(IcsDates.UTC).get(Calendar.YEAR);
+        for (String timeZone : timeZones) {
+            writeTimeZone(timeZone, year);
+        }
+        end("VCALENDAR");
+    }
+
+    /**
+     * Writes a VEVENT with its alarms and attendees.
+     */
+    public void writeEvent(IcsEvent event) throws IOException {
+        begin("VEVENT");
+        line("UID:" + escape(event.uid));
+        line("DTSTAMP:" + dates.formatUtc(System.currentTimeMillis()));
+        date("DTSTART", Collections.singletonList(event.startDate), event.isAllDay,
+                event.timeZone);
+        if (event.endDate > 0) {
+            date("DTEND", Collections.singletonList(event.endDate), event.isAllDay,
+                    event.timeZone);
+        }
+        if (event.endDate <= 0 && event.duration != null) {
+            // The provider stores P3600S, without the time designator RFC 5545 requires.
+            long seconds = IcsDates.parseDurationSeconds(event.duration);
+            if (seconds >= 0) {
+                line("DURATION:" + IcsDates.formatDuration(seconds, event.isAllDay));
+            }
+        }
+        if (event.rRule != null) {
+            line("RRULE:" + event.rRule);
+        }
+        if (!event.exDates.isEmpty()) {
+            date("EXDATE", event.exDates, event.isAllDay, event.timeZone);
+        }
+        if (event.originalStartDate >= 0) {
+            date("RECURRENCE-ID", Collections.singletonList(event.originalStartDate),
+                    event.originalAllDay, event.timeZone);
+        }
+        if (event.status != null) {
+            line("STATUS:" + event.status);
+        }
+        text("SUMMARY", event.title);
+        text("DESCRIPTION", event.description);
+        text("LOCATION", event.location);
+        if (event.url != null && !event.url.isEmpty()) {
+            line("URL:" + event.url);
+        }
+        writeAttendees(event.attendees);
+        for (Integer minutes : event.reminderMinutes) {
+            // The provider stores -1 for the calendar's default reminder, which has no TRIGGER.
+            if (minutes < 0) {
+                continue;
+            }
+            begin("VALARM");
+            line("ACTION:DISPLAY");
+            text("DESCRIPTION", event.title != null ? event.title : "Reminder");
+            line("TRIGGER:-" + IcsDates.formatDuration(minutes * 60L, false));
+            end("VALARM");
+        }
+        end("VEVENT");
+    }
+
+    /**
+     * Writes a property holding dates: DATEs for all-day events, DATE-TIMEs local to the
+     * given zone or else in UTC.
+     *
+     * @param timeZone - Olson id, ignored for all-day events, null for UTC
+     */
+    private void date(String name, List<Long> values, boolean isAllDay, String timeZone)
+            throws IOException {
+        StringBuilder property = new StringBuilder(name);
+        if (isAllDay) {
+            property.append(";VALUE=DATE");
+        } else if (timeZone != null) {
+            property.append(";TZID=").append(timeZone);
+            timeZones.add(timeZone);
+        }
+        property.append(':');
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                property.append(',');
+            }
+            long value = values.get(i);
+            property.append(isAllDay ? dates.formatDate(value) : timeZone != null
+                    ? dates.formatLocal(value, timeZone) : dates.formatUtc(value));
+        }
+        line(property.toString());
+    }
+
+    /**
+     * Writes a VTIMEZONE for the zone. {@link TimeZone} doesn't expose its rules, so they are
+     * derived from the transitions of the given year as yearly changes on the nth or last
+     * weekday of a month, starting in 1970; older rules of the zone aren't described.
+     */
+    private void writeTimeZone(String timeZone, int year) throws IOException {
+        TimeZone zone = TimeZone.getTimeZone(timeZone);
+        begin("VTIMEZONE");
+        line("TZID:" + timeZone);
+        List<Long> transitions = IcsDates.transitions(zone, year);
+        if (transitions.isEmpty()) {
+            String offset = IcsDates.formatOffset(zone.getRawOffset());
+            begin("STANDARD");
+            line("DTSTART:19700101T000000");
+            line("TZOFFSETFROM:" + offset);
+            line("TZOFFSETTO:" + offset);
+            end("STANDARD");
+        }
+        for (long transition : transitions) {
+            int from = zone.getOffset(transition - 1);
+            int to = zone.getOffset(transition);
+            // Onsets are given in the local time before the change.
+            Calendar onset = Calendar.getInstance(IcsDates.UTC);
+            onset.setTimeInMillis(transition + from);
+            int day = onset.get(Calendar.DAY_OF_MONTH);
+            int week = day + 7 > onset.getActualMaximum(Calendar.DAY_OF_MONTH)
+                    ? -1 : (day - 1) / 7 + 1;
+            int weekday = onset.get(Calendar.DAY_OF_WEEK);
+
+            Calendar first = Calendar.getInstance(IcsDates.UTC);
+            first.clear();
+            first.set(1970, onset.get(Calendar.MONTH), 1, onset.get(Calendar.HOUR_OF_DAY),
+                    onset.get(Calendar.MINUTE), onset.get(Calendar.SECOND));
+            first.set(Calendar.DAY_OF_WEEK, weekday);
+            first.set(Calendar.DAY_OF_WEEK_IN_MONTH, week);
+
+            String component = zone.inDaylightTime(new Date(transition))
+                    ? "DAYLIGHT" : "STANDARD";
+            begin(component);
+            line("DTSTART:" + dates.formatLocal(first.getTimeInMillis(), "UTC"));
+            line("TZOFFSETFROM:" + IcsDates.formatOffset(from));
+            line("TZOFFSETTO:" + IcsDates.formatOffset(to));
+            line("RRULE:FREQ=YEARLY;BYMONTH=" + (onset.get(Calendar.MONTH) + 1) + ";BYDAY="
+                    + week + WEEKDAYS[weekday]);
+            end(component);
+        }
+        end("VTIMEZONE");
+    }
+
+    private void writeAttendees(List<IcsEvent.Attendee> attendees) throws IOException {
+        for (IcsEvent.Attendee attendee : attendees) {
+            if (attendee.emailAddress == null || attendee.emailAddress.isEmpty()) {
+                continue;
+            }
+            StringBuilder property = new StringBuilder(
+                    attendee.isOrganiser ? "ORGANIZER" : "ATTENDEE");
+            if (attendee.name != null && !attendee.name.isEmpty()) {
+                property.append(";CN=\"").append(attendee.name.replace("\"", "'")).append('"');
+            }
+            property.append(":mailto:").append(attendee.emailAddress);
+            line(property.toString());
+        }
+    }
+
+    private void text(String name, String value) throws IOException {
+        if (value != null && !value.isEmpty()) {
+            line(name + ":" + escape(value));
+        }
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                case ';':
+                case ',':
+                    escaped.append('\\').append(c);
+                    break;
+                case '\n':
+                    escaped.append("\\n");
+                    break;
+                case '\r':
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private void line(String line) throws IOException {
+        int start = 0;
+        int limit = MAX_LINE;
+        while (line.length() - start > limit) {
+            int end = start + limit;
+            // Don't split a surrogate pair across lines.
+            if (Character.isHighSurrogate(line.charAt(end - 1))) {
+                end--;
+            }
+            writer.write(line, start, end - start);
+            writer.write("\r\n ");
+            start = end;
+            limit = MAX_LINE - 1;
+        }
+        writer.write(line, start, line.length() - start);
+        writer.write("\r\n");
+    }
+
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,69 @@
+package com.fantastic.manage_calendar_events.models;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * A reminder firing for one occurrence of an event: only what an "upcoming reminders" list
+ * shows, without the rest of the event.
+ */
+public final class Alarm {
+
+  @SerializedName("eventId")
+  private final String eventId;
+  @SerializedName("title")
+  private final String title;
+  @SerializedName("begin")
+  private final long begin;
+  @SerializedName("end")
+  private final long end;
+  @SerializedName("minutes")
+  private final long minutes;
+  @SerializedName("alarmTime")
+  private final long alarmTime;
+
+  public Alarm(String eventId, String title, long begin, long end, long minutes) {
+    this(eventId, title, begin, end, minutes, begin);
+  }
+
+  /**
+   * @param from - the time the reminder minutes count back from, the local midnight of the
+   *     date for an all-day occurrence whose begin is its UTC midnight
+   */
+  public Alarm(String eventId, String title, long begin, long end, long minutes, long from) {
+    this.eventId = eventId;
+    this.title = title;
+    this.begin = begin;
+    this.end = end;
+    this.minutes = minutes;
+    this.alarmTime = from - minutes * 60 * 1000;
+  }
+
+  public String getEventId() {
+    return eventId;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public long getBegin() {
+    return begin;
+  }
+
+  public long getEnd() {
+    return end;
+  }
+
+  public long getMinutes() {
+    return minutes;
+  }
+
+  public long getAlarmTime() {
+    return alarmTime;
+  }
+
+  @Override
+  public String toString() {
+    return eventId + "@" + alarmTime;
+  }
+}
@@ -11,12 +11,32 @@ public final class Calendar {
   private final String accountName;
   @SerializedName("ownerName")
   private final String ownerName;
+  @SerializedName("isReadOnly")
+  private final boolean isReadOnly;
+  @SerializedName("color")
+  private final int color;
+  @SerializedName("isVisible")
+  private final boolean isVisible;
+  @SerializedName("isSyncEnabled")
+  private final boolean isSyncEnabled;
+  @SerializedName("timeZone")
+  private final String timeZone;
 
   public Calendar(String id, String name, String accountName, String ownerName) {
+    this(id, name, accountName, ownerName, false, 0, true, true, null);
+  }
+
+  public Calendar(String id, String name, String accountName, String ownerName,
+      boolean isReadOnly, int color, boolean isVisible, boolean isSyncEnabled, String timeZone) {
     this.id = id;
     this.name = name;
-    this.accountName = name;
-    this.ownerName = name;
+    this.accountName = accountName;
+    this.ownerName = ownerName;
+    this.isReadOnly = isReadOnly;
+    this.color = color;
+    this.isVisible = isVisible;
+    this.isSyncEnabled = isSyncEnabled;
+    this.timeZone = timeZone;
   }
 
   public String getId() {
@@ -35,6 +55,26 @@ public final class Calendar {
     return ownerName;
   }
 
+  public boolean isReadOnly() {
+    return isReadOnly;
+  }
+
+  public int getColor() {
+    return color;
+  }
+
+  public boolean isVisible() {
+    return isVisible;
+  }
+
+  public boolean isSyncEnabled() {
+    return isSyncEnabled;
+  }
+
+  public String getTimeZone() {
+    return timeZone;
+  }
+
   @Override
   public String toString() {
     return new StringBuffer().append(id).append("-").append(name).append("-").append(accountName)
@@ -11,6 +11,16 @@ import java.util.Objects;
 
 public final class CalendarEvent {
 
+  // Fields which map to an Events column, see getDirtyFields().
+  public static final int FIELD_TITLE = 1;
+  public static final int FIELD_DESCRIPTION = 1 << 1;
+  public static final int FIELD_START_DATE = 1 << 2;
+  public static final int FIELD_END_DATE = 1 << 3;
+  public static final int FIELD_LOCATION = 1 << 4;
+  public static final int FIELD_URL = 1 << 5;
+  public static final int FIELD_ALL_DAY = 1 << 6;
+  public static final int FIELD_HAS_ALARM = 1 << 7;
+
   @SerializedName("eventId")
   private String eventId;
   @SerializedName("title")
@@ -36,6 +46,12 @@ public final class CalendarEvent {
 
   @SerializedName("attendees")
   private List<Attendee> attendees;
+  // Set when the reminder and attendees couldn't be loaded in time, they are unknown then.
+  @SerializedName("enrichmentIncomplete")
+  private boolean enrichmentIncomplete;
+
+  // Fields changed through their setter since construction or clearDirtyFields().
+  private transient int dirtyFields;
 
   public CalendarEvent(String eventId, String title, String description, long startDate,
       long endDate,
@@ -64,7 +80,10 @@ public final class CalendarEvent {
   }
 
   public void setTitle(String title) {
-    this.title = title;
+    if (!Objects.equals(this.title, title)) {
+      this.title = title;
+      dirtyFields |= FIELD_TITLE;
+    }
   }
 
   public String getDescription() {
@@ -72,7 +91,10 @@ public final class CalendarEvent {
   }
 
   public void setDescription(String description) {
-    this.description = description;
+    if (!Objects.equals(this.description, description)) {
+      this.description = description;
+      dirtyFields |= FIELD_DESCRIPTION;
+    }
   }
 
   public long getStartDate() {
@@ -80,7 +102,10 @@ public final class CalendarEvent {
   }
 
   public void setStartDate(long startDate) {
-    this.startDate = startDate;
+    if (this.startDate != startDate) {
+      this.startDate = startDate;
+      dirtyFields |= FIELD_START_DATE;
+    }
   }
 
   public long getEndDate() {
@@ -88,7 +113,10 @@ public final class CalendarEvent {
   }
 
   public void setEndDate(long endDate) {
-    this.endDate = endDate;
+    if (this.endDate != endDate) {
+      this.endDate = endDate;
+      dirtyFields |= FIELD_END_DATE;
+    }
   }
 
   public String getLocation() {
@@ -96,7 +124,10 @@ public final class CalendarEvent {
   }
 
   public void setLocation(String location) {
-    this.location = location;
+    if (!Objects.equals(this.location, location)) {
+      this.location = location;
+      dirtyFields |= FIELD_LOCATION;
+    }
   }
 
   public String getUrl() {
@@ -104,7 +135,10 @@ public final class CalendarEvent {
   }
 
   public void setUrl(String url) {
+    if (!Objects.equals(this.url, url)) {
       this.url = url;
+      dirtyFields |= FIELD_URL;
+    }
   }
 
   public long getDuration() {
@@ -120,7 +154,10 @@ public final class CalendarEvent {
   }
 
   public void setAllDay(boolean allDay) {
-    isAllDay = allDay;
+    if (isAllDay != allDay) {
+      isAllDay = allDay;
+      dirtyFields |= FIELD_ALL_DAY;
+    }
   }
 
   public boolean isHasAlarm() {
@@ -128,7 +165,10 @@ public final class CalendarEvent {
   }
 
   public void setHasAlarm(boolean hasAlarm) {
-    this.hasAlarm = hasAlarm;
+    if (this.hasAlarm != hasAlarm) {
+      this.hasAlarm = hasAlarm;
+      dirtyFields |= FIELD_HAS_ALARM;
+    }
   }
 
   public Reminder getReminder() {
@@ -139,10 +179,38 @@ public final class CalendarEvent {
     this.reminder = reminder;
   }
 
+  public List<Attendee> getAttendees() {
+    return attendees;
+  }
+
   public void setAttendees(List<Attendee> attendees) {
     this.attendees = attendees;
   }
 
+  public boolean isEnrichmentIncomplete() {
+    return enrichmentIncomplete;
+  }
+
+  public void setEnrichmentIncomplete(boolean enrichmentIncomplete) {
+    this.enrichmentIncomplete = enrichmentIncomplete;
+  }
+
+  /**
+   * Returns the FIELD_* flags of the fields whose value was changed by a setter, so that an
+   * update can write only those columns. Setting a field to its current value doesn't count.
+   */
+  public int getDirtyFields() {
+    return dirtyFields;
+  }
+
+  public boolean isDirty(int field) {
+    return (dirtyFields & field) != 0;
+  }
+
+  public void clearDirtyFields() {
+    dirtyFields = 0;
+  }
+
   @Override
   public String toString() {
     return eventId + "-" + title + "-" + description + "-" + startDate + "-" + endDate + "-"
@@ -0,0 +1,120 @@
+package com.fantastic.manage_calendar_events.models;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Events of a queried window in compact form: one-off events as they are and recurring events
+ * as {@link EventSeries}, so a series' payload is only held and serialized once.
+ *
+ * One-off events are expected in start order, as the provider returns them; together with the
+ * sorted occurrences of each series this lets {@link #toList()} merge instead of sort.
+ */
+public final class CalendarEventRange {
+
+  @SerializedName("events")
+  private final List<CalendarEvent> events = new ArrayList<>();
+  @SerializedName("series")
+  private final List<EventSeries> series = new ArrayList<>();
+
+  /**
+   * Next unmerged element of one sorted source: the one-off events (source -1) or a series.
+   */
+  private static final class Head implements Comparable<Head> {
+    final int source;
+    int index;
+    long begin;
+
+    Head(int source, long begin) {
+      this.source = source;
+      this.begin = begin;
+    }
+
+    @Override
+    public int compareTo(Head other) {
+      if (begin != other.begin) {
+        return begin < other.begin ? -1 : 1;
+      }
+      // Equal starts keep the order of the sources.
+      return Integer.compare(source, other.source);
+    }
+  }
+
+  public void addEvent(CalendarEvent event) {
+    events.add(event);
+  }
+
+  public void addSeries(EventSeries eventSeries) {
+    series.add(eventSeries);
+  }
+
+  public List<CalendarEvent> getEvents() {
+    return events;
+  }
+
+  public List<EventSeries> getSeries() {
+    return series;
+  }
+
+  /**
+   * Returns the number of events {@link #toList()} would produce.
+   */
+  public int size() {
+    int size = events.size();
+    for (EventSeries eventSeries : series) {
+      size += eventSeries.size();
+    }
+    return size;
+  }
+
+  /**
+   * Expands every series into individual occurrences, ordered by start date.
+   */
+  public ArrayList<CalendarEvent> toList() {
+    return toList(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Returns the first {@code limit} events by start date. The one-off events and the series are
+   * already sorted, so they are merged through a heap of their heads and nothing past the limit
+   * is materialized.
+   */
+  public ArrayList<CalendarEvent> toList(int limit) {
+    ArrayList<CalendarEvent> list = new ArrayList<>(Math.min(size(), limit));
+    PriorityQueue<Head> heads = new PriorityQueue<>(series.size() + 1);
+    if (!events.isEmpty()) {
+      heads.add(new Head(-1, events.get(0).getStartDate()));
+    }
+    for (int s = 0; s < series.size(); s++) {
+      if (series.get(s).size() > 0) {
+        heads.add(new Head(s, series.get(s).getBegin(0)));
+      }
+    }
+
+    while (list.size() < limit && !heads.isEmpty()) {
+      Head head = heads.poll();
+      int remaining;
+      if (head.source < 0) {
+        list.add(events.get(head.index++));
+        remaining = events.size() - head.index;
+        if (remaining > 0) {
+          head.begin = events.get(head.index).getStartDate();
+        }
+      } else {
+        EventSeries eventSeries = series.get(head.source);
+        list.add(eventSeries.toOccurrence(head.index++));
+        remaining = eventSeries.size() - head.index;
+        if (remaining > 0) {
+          head.begin = eventSeries.getBegin(head.index);
+        }
+      }
+      if (remaining > 0) {
+        heads.add(head);
+      }
+    }
+    return list;
+  }
+}
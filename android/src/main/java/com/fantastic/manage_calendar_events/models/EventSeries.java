@@ -0,0 +1,62 @@
+package com.fantastic.manage_calendar_events.models;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Occurrences of one recurring event inside a queried window. The series payload (title,
+ * description, location, reminder, attendees...) is stored once, the occurrence times are kept
+ * in parallel primitive arrays sorted by begin time.
+ */
+public final class EventSeries {
+
+  @SerializedName("event")
+  private final CalendarEvent event;
+  @SerializedName("begins")
+  private final long[] begins;
+  @SerializedName("ends")
+  private final long[] ends;
+
+  public EventSeries(CalendarEvent event, long[] begins, long[] ends) {
+    if (begins.length != ends.length) {
+      throw new IllegalArgumentException("begins and ends must have the same length");
+    }
+    this.event = event;
+    this.begins = begins;
+    this.ends = ends;
+  }
+
+  public CalendarEvent getEvent() {
+    return event;
+  }
+
+  public int size() {
+    return begins.length;
+  }
+
+  public long getBegin(int index) {
+    return begins[index];
+  }
+
+  public long getEnd(int index) {
+    return ends[index];
+  }
+
+  /**
+   * Materializes a single occurrence. The returned event shares every field of the series
+   * except its start and end date.
+   */
+  public CalendarEvent toOccurrence(int index) {
+    CalendarEvent occurrence = new CalendarEvent(event.getEventId(), event.getTitle(),
+        event.getDescription(), begins[index], ends[index], event.getLocation(), event.getUrl(),
+        event.isAllDay(), event.isHasAlarm());
+    occurrence.setReminder(event.getReminder());
+    occurrence.setAttendees(event.getAttendees());
+    occurrence.setEnrichmentIncomplete(event.isEnrichmentIncomplete());
+    return occurrence;
+  }
+
+  @Override
+  public String toString() {
+    return event + "x" + begins.length;
+  }
+}
@@ -0,0 +1,75 @@
+package com.fantastic.manage_calendar_events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.fantastic.manage_calendar_events.models.Alarm;
+import com.fantastic.manage_calendar_events.models.Calendar;
+import com.fantastic.manage_calendar_events.models.CalendarEvent;
+import com.fantastic.manage_calendar_events.models.CalendarEventRange;
+import com.fantastic.manage_calendar_events.models.EventSeries;
+import com.google.gson.Gson;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class CalendarJsonWriterTest {
+
+    private final Gson gson = new Gson();
+
+    private static CalendarEvent bare() {
+        return new CalendarEvent("1", null, null, 100, 200, null, null, false, false);
+    }
+
+    private static CalendarEvent enriched() {
+        CalendarEvent event = new CalendarEvent("2", "Title \"quoted\"", "Line\nbreak", 300,
+                400, "Room \u00e9", "https://example.com/?a=1&b=<2>", true, true);
+        event.setDuration(3600);
+        event.setReminder(new CalendarEvent.Reminder(15));
+        event.setAttendees(Arrays.asList(
+                new CalendarEvent.Attendee("7", "Ann", "ann@example.com", true),
+                new CalendarEvent.Attendee(null, null, "bob@example.com", false)));
+        return event;
+    }
+
+    @Test
+    void writesEventsAsGsonDoes() {
+        CalendarEvent incomplete = bare();
+        incomplete.setEnrichmentIncomplete(true);
+        CalendarEvent noAttendees = enriched();
+        noAttendees.setAttendees(Collections.<CalendarEvent.Attendee>emptyList());
+        List<CalendarEvent> events = Arrays.asList(bare(), enriched(), incomplete, noAttendees);
+
+        assertEquals(gson.toJson(events), CalendarJsonWriter.events(events));
+        assertEquals(gson.toJson(Collections.emptyList()),
+                CalendarJsonWriter.events(Collections.<CalendarEvent>emptyList()));
+    }
+
+    @Test
+    void writesEventRangesAsGsonDoes() {
+        CalendarEventRange range = new CalendarEventRange();
+        range.addEvent(enriched());
+        range.addSeries(new EventSeries(bare(), new long[]{100, 1100}, new long[]{200, 1200}));
+        assertEquals(gson.toJson(range), CalendarJsonWriter.eventRange(range));
+    }
+
+    @Test
+    void writesAttendeesAsGsonDoes() {
+        List<CalendarEvent.Attendee> attendees = enriched().getAttendees();
+        assertEquals(gson.toJson(attendees), CalendarJsonWriter.attendees(attendees));
+    }
+
+    @Test
+    void writesCalendarsAndAlarmsAsGsonDoes() {
+        List<Calendar> calendars = Arrays.asList(
+                new Calendar("1", "Work", "me@example.com", null),
+                new Calendar("2", null, null, null, true, 0xff3366, false, true,
+                        "Europe/Paris"));
+        assertEquals(gson.toJson(calendars), CalendarJsonWriter.calendars(calendars));
+
+        List<Alarm> alarms = Collections.singletonList(new Alarm("1", null, 100, 200, 10));
+        assertEquals(gson.toJson(alarms), CalendarJsonWriter.alarms(alarms));
+    }
+}
@@ -0,0 +1,169 @@
+package com.fantastic.manage_calendar_events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import android.provider.CalendarContract.Events;
+
+import com.fantastic.manage_calendar_events.models.CalendarEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class CalendarOperationsTest {
+
+    private static CalendarEvent event(String id, String title, long start) {
+        return new CalendarEvent(id, title, null, start, start + 10, null, null, false, false);
+    }
+
+    private static List<String> ids(List<CalendarEvent> events) {
+        List<String> ids = new ArrayList<>();
+        for (CalendarEvent event : events) {
+            ids.add(event.getEventId());
+        }
+        return ids;
+    }
+
+    @Test
+    void mergesCalendarsByStartKeepingTiesInCalendarOrder() {
+        List<CalendarEvent> first = Arrays.asList(event("a1", "A", 100), event("a2", "B", 300));
+        List<CalendarEvent> second = Arrays.asList(event("b1", "C", 100), event("b2", "D", 200));
+        List<CalendarEvent> third = Collections.singletonList(event("c1", "E", 100));
+        assertEquals(Arrays.asList("a1", "b1", "c1", "b2", "a2"),
+                ids(CalendarOperations.mergeByStart(Arrays.asList(first, second, third))));
+        assertEquals(Arrays.asList("a1", "a2"),
+                ids(CalendarOperations.mergeByStart(Collections.singletonList(first))));
+    }
+
+    @Test
+    void collapsesDuplicatesKeepingTheFirstInOrder() {
+        List<CalendarEvent> events = Arrays.asList(
+                event("1", "Sync", 100),
+                event("2", "Lunch", 100),
+                event("3", " sync ", 100),
+                event("4", "Sync", 200),
+                event("5", "LUNCH", 100),
+                event("6", "Sync", 100));
+        assertEquals(Arrays.asList("1", "2", "4"),
+                ids(CalendarOperations.collapseDuplicates(events)));
+    }
+
+    @Test
+    void keepsEventsWhichOnlyLookAlike() {
+        CalendarEvent inRoom1 = event("1", "Sync", 100);
+        inRoom1.setLocation("Room 1");
+        CalendarEvent inRoom2 = event("2", "Sync", 100);
+        inRoom2.setLocation("Room 2");
+        CalendarEvent allDay = new CalendarEvent("3", "Sync", null, 100, 110, "Room 1", null,
+                true, false);
+        CalendarEvent longer = new CalendarEvent("4", "Sync", null, 100, 120, "Room 1", null,
+                false, false);
+        assertEquals(Arrays.asList("1", "2", "3", "4"), ids(CalendarOperations.collapseDuplicates(
+                Arrays.asList(inRoom1, inRoom2, allDay, longer))));
+    }
+
+    @Test
+    void collapsesNothingWhenEmpty() {
+        assertEquals(Collections.emptyList(),
+                CalendarOperations.collapseDuplicates(Collections.<CalendarEvent>emptyList()));
+    }
+
+    private static Map<String, Object> changes(Object... entries) {
+        Map<String, Object> changes = new HashMap<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            changes.put((String) entries[i], entries[i + 1]);
+        }
+        return changes;
+    }
+
+    private static void assertInvalid(String message, String eventId,
+                                      Map<String, Object> changes) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> CalendarOperations.checkPatch(eventId, changes));
+        assertEquals(message, e.getMessage());
+    }
+
+    @Test
+    void acceptsPatchesOfEveryField() {
+        CalendarOperations.checkPatch("1", changes(
+                "title", "Title",
+                "description", "",
+                "startDate", 100,
+                "endDate", 200L,
+                "location", "Room",
+                "url", "https://example.com",
+                "isAllDay", false,
+                "hasAlarm", true));
+        CalendarOperations.checkPatch("1", changes());
+    }
+
+    @Test
+    void rejectsInvalidPatches() {
+        assertInvalid("eventId is required", null, changes("title", "Title"));
+        assertInvalid("changes is required", "1", null);
+        assertInvalid("Unknown field color", "1", changes("color", 1));
+        assertInvalid("Invalid title: 1", "1", changes("title", 1));
+        assertInvalid("Invalid title: null", "1", changes("title", null));
+        assertInvalid("Invalid startDate: soon", "1", changes("startDate", "soon"));
+        assertInvalid("Invalid endDate: null", "1", changes("endDate", null));
+        assertInvalid("Invalid isAllDay: 1", "1", changes("isAllDay", 1));
+    }
+
+    @Test
+    void patchWritesOnlyTheChangedColumns() {
+        CalendarEvent event = new CalendarEvent("1", "Title", "Text", 100, 200, "Room", null,
+                false, false);
+        CalendarOperations.applyPatch(event, changes(
+                "title", "Renamed",
+                "description", "Text",
+                "startDate", 150,
+                "isAllDay", false));
+
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put(Events.TITLE, "Renamed");
+        expected.put(Events.DTSTART, 150L);
+        assertEquals(expected, CalendarOperations.dirtyColumns(event));
+        assertEquals(200, event.getEndDate());
+        assertEquals("Room", event.getLocation());
+    }
+
+    @Test
+    void patchWithoutChangesWritesNothing() {
+        CalendarEvent event = new CalendarEvent("1", "Title", null, 100, 200, null, null, true,
+                false);
+        CalendarOperations.applyPatch(event, changes("title", "Title", "isAllDay", true));
+        assertTrue(CalendarOperations.dirtyColumns(event).isEmpty());
+    }
+
+    @Test
+    void dirtyColumnsMapEveryField() {
+        CalendarEvent event = new CalendarEvent("1", null, null, 0, 0, null, null, false, false);
+        CalendarOperations.applyPatch(event, changes(
+                "title", "T",
+                "description", "D",
+                "startDate", 1,
+                "endDate", 2,
+                "location", "L",
+                "url", "U",
+                "isAllDay", true,
+                "hasAlarm", true));
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put(Events.TITLE, "T");
+        expected.put(Events.DESCRIPTION, "D");
+        expected.put(Events.DTSTART, 1L);
+        expected.put(Events.DTEND, 2L);
+        expected.put(Events.EVENT_LOCATION, "L");
+        expected.put(Events.CUSTOM_APP_URI, "U");
+        expected.put(Events.ALL_DAY, true);
+        expected.put(Events.HAS_ALARM, true);
+        assertEquals(expected, CalendarOperations.dirtyColumns(event));
+    }
+}
@@ -0,0 +1,97 @@
+package com.fantastic.manage_calendar_events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class DuplicateIndexTest {
+
+    private static DuplicateIndex.Occurrence occurrence(String eventId, String calendarId) {
+        return new DuplicateIndex.Occurrence(eventId, calendarId, "Title", 1000, 2000);
+    }
+
+    private static List<String> ids(List<DuplicateIndex.Occurrence> cluster) {
+        List<String> ids = new ArrayList<>();
+        for (DuplicateIndex.Occurrence occurrence : cluster) {
+            ids.add(occurrence.calendarId + "/" + occurrence.eventId);
+        }
+        return ids;
+    }
+
+    @Test
+    void fingerprintIgnoresCaseSpacingAndMissingValues() {
+        long fingerprint = DuplicateIndex.fingerprint("Team  sync", 1000, 2000, null, false);
+        assertEquals(fingerprint,
+                DuplicateIndex.fingerprint(" team sync\n", 1000, 2000, "", false));
+        assertEquals(fingerprint,
+                DuplicateIndex.fingerprint("TEAM\tSYNC", 1000, 2000, "  ", false));
+    }
+
+    @Test
+    void fingerprintTellsApartEventsWhichOnlyLookAlike() {
+        long fingerprint = DuplicateIndex.fingerprint("Sync", 1000, 2000, "Room 1", false);
+        assertFalse(fingerprint == DuplicateIndex.fingerprint("Sync", 1001, 2000, "Room 1",
+                false));
+        assertFalse(fingerprint == DuplicateIndex.fingerprint("Sync", 1000, 2001, "Room 1",
+                false));
+        assertFalse(fingerprint == DuplicateIndex.fingerprint("Sync", 1000, 2000, "Room 2",
+                false));
+        assertFalse(fingerprint == DuplicateIndex.fingerprint("Sync", 1000, 2000, "Room 1",
+                true));
+        // Field boundaries count, the title's end isn't the location's start.
+        assertFalse(DuplicateIndex.fingerprint("ab", 0, 0, "c", false)
+                == DuplicateIndex.fingerprint("a", 0, 0, "bc", false));
+    }
+
+    @Test
+    void fingerprintsHashEveryCharByte() {
+        // FNV-1a reads both bytes of a char, so chars sharing their low byte differ.
+        assertFalse(Fingerprints.of("A") == Fingerprints.of("\u0141"));
+        assertFalse(Fingerprints.of(null) == Fingerprints.of(""));
+        assertEquals(Fingerprints.of("title"), Fingerprints.add(Fingerprints.SEED, "title"));
+    }
+
+    @Test
+    void clustersOccurrencesSharingAFingerprintInOrder() {
+        DuplicateIndex index = new DuplicateIndex();
+        assertTrue(index.add(1, occurrence("1", "a")));
+        assertTrue(index.add(2, occurrence("2", "a")));
+        assertFalse(index.add(2, occurrence("3", "b")));
+        assertFalse(index.add(1, occurrence("4", "b")));
+        assertFalse(index.add(2, occurrence("5", "c")));
+        assertTrue(index.add(3, occurrence("6", "c")));
+
+        List<List<String>> clusters = new ArrayList<>();
+        for (List<DuplicateIndex.Occurrence> cluster : index.getClusters()) {
+            clusters.add(ids(cluster));
+        }
+        // Clusters come in the order their second occurrence was found.
+        assertEquals(Arrays.asList(Arrays.asList("a/2", "b/3", "c/5"),
+                Arrays.asList("a/1", "b/4")), clusters);
+    }
+
+    @Test
+    void trustsFingerprintsOnCollision() {
+        // Only fingerprints are indexed, two different events with the same one are grouped.
+        DuplicateIndex index = new DuplicateIndex();
+        index.add(42, new DuplicateIndex.Occurrence("1", "a", "Lunch", 1000, 2000));
+        index.add(42, new DuplicateIndex.Occurrence("2", "b", "Dentist", 5000, 6000));
+        assertEquals(1, index.getClusters().size());
+        assertEquals(Arrays.asList("a/1", "b/2"), ids(index.getClusters().get(0)));
+    }
+
+    @Test
+    void hasNoClustersWithoutRepeats() {
+        DuplicateIndex index = new DuplicateIndex();
+        index.add(1, occurrence("1", "a"));
+        index.add(2, occurrence("1", "b"));
+        assertEquals(Collections.emptyList(), index.getClusters());
+    }
+}
@@ -0,0 +1,165 @@
+package com.fantastic.manage_calendar_events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import android.database.Cursor;
+import android.provider.CalendarContract.Events;
+
+import com.fantastic.manage_calendar_events.models.CalendarEvent;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class EventFilterTest {
+
+    private static Map<String, Object> map(Object... entries) {
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            map.put((String) entries[i], entries[i + 1]);
+        }
+        return map;
+    }
+
+    /**
+     * A row of the given columns, answering only what the filter asks a cursor.
+     */
+    private static Cursor row(Object... entries) {
+        final Map<String, Object> columns = new LinkedHashMap<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            columns.put((String) entries[i], entries[i + 1]);
+        }
+        final List<String> names = new ArrayList<>(columns.keySet());
+        return (Cursor) Proxy.newProxyInstance(Cursor.class.getClassLoader(),
+                new Class<?>[]{Cursor.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getColumnIndex":
+                            return names.indexOf((String) args[0]);
+                        case "isNull":
+                            return columns.get(names.get((Integer) args[0])) == null;
+                        case "getInt":
+                            return ((Number) columns.get(names.get((Integer) args[0])))
+                                    .intValue();
+                        case "getString":
+                            Object value = columns.get(names.get((Integer) args[0]));
+                            return value != null ? value.toString() : null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static CalendarEvent event(String title, boolean isAllDay, boolean hasAlarm) {
+        return new CalendarEvent("1", title, null, 0, 10, null, null, isAllDay, hasAlarm);
+    }
+
+    @Test
+    void filtersNothingWithoutEntries() {
+        assertNull(EventFilter.fromMap(null));
+        assertNull(EventFilter.fromMap(Collections.<String, Object>emptyMap()));
+        assertNull(EventFilter.fromMap(map("titlePrefix", "", "isAllDay", null, "unknown", 1)));
+        assertEquals("selection", EventFilter.where("selection", null));
+        assertNull(EventFilter.args(null));
+        assertEquals("", EventFilter.key(null));
+    }
+
+    @Test
+    void bindsListedValuesAndAcceptsNullForTheDefault() {
+        EventFilter confirmed = EventFilter.fromMap(map("status",
+                Collections.singletonList(Events.STATUS_CONFIRMED)));
+        assertEquals("s AND ((" + Events.STATUS + " IN (?) OR " + Events.STATUS + " IS NULL))",
+                EventFilter.where("s", confirmed));
+        assertEquals(Collections.singletonList(String.valueOf(Events.STATUS_CONFIRMED)),
+                Arrays.asList(EventFilter.args(confirmed)));
+
+        EventFilter tentative = EventFilter.fromMap(map("status",
+                Arrays.asList(Events.STATUS_TENTATIVE, 2.0)));
+        assertEquals("s AND ((" + Events.STATUS + " IN (?,?)))",
+                EventFilter.where("s", tentative));
+        // Numbers may come from Dart as doubles.
+        assertEquals(Arrays.asList(String.valueOf(Events.STATUS_TENTATIVE), "2"),
+                Arrays.asList(EventFilter.args(tentative)));
+    }
+
+    @Test
+    void matchesNothingForAnEmptyList() {
+        EventFilter filter = EventFilter.fromMap(map("availability",
+                Collections.emptyList()));
+        assertEquals("s AND (0)", EventFilter.where("s", filter));
+        assertEquals(0, EventFilter.args(filter).length);
+    }
+
+    @Test
+    void combinesClausesInOrder() {
+        EventFilter filter = EventFilter.fromMap(map(
+                "organizer", "me@example.com",
+                "hasAlarm", false,
+                "isAllDay", true,
+                "selfAttendeeStatus", Collections.singletonList(1)));
+        assertEquals("s AND ((" + Events.SELF_ATTENDEE_STATUS + " IN (?)) AND "
+                        + Events.ALL_DAY + " = ? AND " + Events.HAS_ALARM + " = ? AND "
+                        + Events.ORGANIZER + " = ? COLLATE NOCASE)",
+                EventFilter.where("s", filter));
+        assertEquals(Arrays.asList("1", "1", "0", "me@example.com"),
+                Arrays.asList(EventFilter.args(filter)));
+    }
+
+    @Test
+    void escapesLikeWildcardsOfTheTitlePrefix() {
+        EventFilter filter = EventFilter.fromMap(map("titlePrefix", "50%_off\\"));
+        assertEquals("s AND (" + Events.TITLE + " LIKE ? ESCAPE '\\')",
+                EventFilter.where("s", filter));
+        assertEquals(Collections.singletonList("50\\%\\_off\\\\%"),
+                Arrays.asList(EventFilter.args(filter)));
+    }
+
+    @Test
+    void keysTellFiltersApart() {
+        String key = EventFilter.key(EventFilter.fromMap(map("titlePrefix", "a")));
+        assertEquals(key, EventFilter.key(EventFilter.fromMap(map("titlePrefix", "a"))));
+        assertFalse(key.equals(EventFilter.key(EventFilter.fromMap(map("titlePrefix", "b")))));
+    }
+
+    @Test
+    void acceptsAsTheSelectionWould() {
+        EventFilter filter = EventFilter.fromMap(map(
+                "status", Collections.singletonList(Events.STATUS_CONFIRMED),
+                "isAllDay", false,
+                "titlePrefix", "Team",
+                "organizer", "Me@Example.com"));
+        Cursor stored = row(Events.STATUS, null, Events.ORGANIZER, "me@example.com");
+
+        assertTrue(filter.accepts(stored, event("team sync", false, false)));
+        assertFalse(filter.accepts(stored, event("Sync", false, false)));
+        assertFalse(filter.accepts(stored, event(null, false, false)));
+        assertFalse(filter.accepts(stored, event("Team sync", true, false)));
+        assertFalse(filter.accepts(row(Events.STATUS, Events.STATUS_CANCELED,
+                Events.ORGANIZER, "me@example.com"), event("Team sync", false, false)));
+        assertFalse(filter.accepts(row(Events.STATUS, Events.STATUS_CONFIRMED,
+                Events.ORGANIZER, "other@example.com"), event("Team sync", false, false)));
+        // A row read without the organizer can't be told to match.
+        assertFalse(filter.accepts(row(Events.STATUS, Events.STATUS_CONFIRMED),
+                event("Team sync", false, false)));
+    }
+
+    @Test
+    void acceptsDefaultsForColumnsLeftNull() {
+        EventFilter filter = EventFilter.fromMap(map(
+                "availability", Collections.singletonList(Events.AVAILABILITY_BUSY),
+                "hasAlarm", true));
+        assertTrue(filter.accepts(row(Events.AVAILABILITY, null), event("a", false, true)));
+        assertFalse(filter.accepts(row(Events.AVAILABILITY, Events.AVAILABILITY_FREE),
+                event("a", false, true)));
+        assertFalse(filter.accepts(row(Events.AVAILABILITY, null), event("a", false, false)));
+    }
+}
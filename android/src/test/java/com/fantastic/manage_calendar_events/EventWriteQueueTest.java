@@ -0,0 +1,74 @@
+package com.fantastic.manage_calendar_events;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.os.Handler;
+
+import com.fantastic.manage_calendar_events.models.CalendarEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+class EventWriteQueueTest {
+
+    private final CalendarOperations operations = mock(CalendarOperations.class);
+    // The write executor, run by hand.
+    private final List<Runnable> writes = new ArrayList<>();
+    private final EventWriteQueue queue = new EventWriteQueue(operations, writes::add,
+            mock(Handler.class), mock(EventStream.class));
+
+    private void runWrites() {
+        while (!writes.isEmpty()) {
+            writes.remove(0).run();
+        }
+    }
+
+    @Test
+    void patchAfterDeferredMoveKeepsBothChanges() {
+        CalendarEvent moved = new CalendarEvent("7", "Title", null, 2000, 3000, null, null,
+                false, false);
+        final Map<String, Object> changes = Collections.<String, Object>singletonMap("title",
+                "Renamed");
+        when(operations.createUpdateEvent("1", moved)).thenReturn(true);
+        when(operations.patchEvent("1", "7", changes)).thenReturn(true);
+
+        queue.enqueue("1", moved);
+        // What the plugin does for a patch.
+        queue.flushEvent("7");
+        writes.add(() -> operations.patchEvent("1", "7", changes));
+        // The scheduled flush, which mustn't write the queued title over the patch.
+        queue.flush(null);
+        runWrites();
+
+        InOrder order = inOrder(operations);
+        order.verify(operations).createUpdateEvent("1", moved);
+        order.verify(operations).patchEvent("1", "7", changes);
+        verify(operations, times(1)).createUpdateEvent(anyString(), any(CalendarEvent.class));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void discardDropsQueuedValues() {
+        queue.enqueue("1", new CalendarEvent("7", "Title", null, 2000, 3000, null, null, false,
+                false));
+        queue.discard("7");
+        queue.flush(null);
+        runWrites();
+
+        verify(operations, never()).createUpdateEvent(anyString(), any(CalendarEvent.class));
+        assertTrue(queue.isEmpty());
+    }
+}
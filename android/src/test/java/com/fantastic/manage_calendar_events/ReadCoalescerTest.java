@@ -0,0 +1,158 @@
+package com.fantastic.manage_calendar_events;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockConstruction;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.flutter.plugin.common.MethodChannel.Result;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedConstruction;
+
+class ReadCoalescerTest {
+
+    // The read executor, run by hand.
+    private final List<Runnable> reads = new ArrayList<>();
+    private final AtomicInteger runs = new AtomicInteger();
+    private final ReadCoalescer.Read read = signal -> "document " + runs.incrementAndGet();
+
+    private ReadCoalescer coalescer() {
+        Handler mainHandler = mock(Handler.class);
+        when(mainHandler.post(any(Runnable.class))).thenAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return true;
+        });
+        return new ReadCoalescer(reads::add, mainHandler);
+    }
+
+    private void runReads() {
+        while (!reads.isEmpty()) {
+            reads.remove(0).run();
+        }
+    }
+
+    @Test
+    void identicalReadsShareOneExecution() {
+        try (MockedConstruction<CancellationSignal> ignored =
+                     mockConstruction(CancellationSignal.class)) {
+            ReadCoalescer coalescer = coalescer();
+            Result first = mock(Result.class);
+            Result second = mock(Result.class);
+            Result third = mock(Result.class);
+
+            coalescer.execute("calendars", 1, "a", first, read);
+            coalescer.execute("calendars", 1, "b", second, read);
+            coalescer.execute("calendars", 1, null, third, read);
+            assertEquals(1, reads.size());
+            runReads();
+
+            assertEquals(1, runs.get());
+            verify(first).success("document 1");
+            verify(second).success("document 1");
+            verify(third).success("document 1");
+            // The flight is over, so its request ids are forgotten.
+            assertFalse(coalescer.cancel("a"));
+        }
+    }
+
+    @Test
+    void readsAfterAChangeOrWithoutKeyRunAgain() {
+        try (MockedConstruction<CancellationSignal> ignored =
+                     mockConstruction(CancellationSignal.class)) {
+            ReadCoalescer coalescer = coalescer();
+            Result stale = mock(Result.class);
+            Result fresh = mock(Result.class);
+            Result unshared = mock(Result.class);
+
+            coalescer.execute("calendars", 1, null, stale, read);
+            coalescer.execute("calendars", 2, null, fresh, read);
+            coalescer.execute(null, 2, null, unshared, read);
+            runReads();
+
+            assertEquals(3, runs.get());
+            verify(stale).success("document 1");
+            verify(fresh).success("document 2");
+            verify(unshared).success("document 3");
+        }
+    }
+
+    @Test
+    void cancellingOneWaiterKeepsTheReadForTheOthers() {
+        try (MockedConstruction<CancellationSignal> signals =
+                     mockConstruction(CancellationSignal.class)) {
+            ReadCoalescer coalescer = coalescer();
+            Result cancelled = mock(Result.class);
+            Result kept = mock(Result.class);
+
+            coalescer.execute("calendars", 1, "a", cancelled, read);
+            coalescer.execute("calendars", 1, "b", kept, read);
+            assertTrue(coalescer.cancel("a"));
+            assertFalse(coalescer.cancel("a"));
+            verify(cancelled).error(eq("CANCELLED"), anyString(), isNull());
+            verify(signals.constructed().get(0), never()).cancel();
+            runReads();
+
+            verify(kept).success("document 1");
+            verify(cancelled, never()).success(any());
+        }
+    }
+
+    @Test
+    void cancellingTheLastWaiterAbortsTheRead() {
+        try (MockedConstruction<CancellationSignal> signals =
+                     mockConstruction(CancellationSignal.class)) {
+            ReadCoalescer coalescer = coalescer();
+            Result first = mock(Result.class);
+            Result second = mock(Result.class);
+            Result next = mock(Result.class);
+
+            coalescer.execute("calendars", 1, "a", first, read);
+            coalescer.execute("calendars", 1, "b", second, read);
+            assertTrue(coalescer.cancel("a"));
+            assertTrue(coalescer.cancel("b"));
+            verify(signals.constructed().get(0)).cancel();
+            verify(first).error(eq("CANCELLED"), anyString(), isNull());
+            verify(second).error(eq("CANCELLED"), anyString(), isNull());
+
+            // A read aborted before it got to run doesn't take new waiters.
+            coalescer.execute("calendars", 1, null, next, read);
+            assertEquals(2, reads.size());
+        }
+    }
+
+    @Test
+    void failuresReachEveryWaiter() {
+        try (MockedConstruction<CancellationSignal> ignored =
+                     mockConstruction(CancellationSignal.class)) {
+            ReadCoalescer coalescer = coalescer();
+            Result first = mock(Result.class);
+            Result second = mock(Result.class);
+            ReadCoalescer.Read denied = signal -> {
+                throw new SecurityException("No permission");
+            };
+
+            coalescer.execute("calendars", 1, null, first, denied);
+            coalescer.execute("calendars", 1, null, second, denied);
+            runReads();
+
+            verify(first).error("PERMISSION_DENIED", "No permission", null);
+            verify(second).error("PERMISSION_DENIED", "No permission", null);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.fantastic.manage_calendar_events.ics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.Test;
+
+class IcsDatesTest {
+
+    // 2024-03-01T00:00:00Z
+    private static final long MARCH_1 = 1709251200000L;
+    private static final long HOUR = 3600000L;
+
+    private final IcsDates dates = new IcsDates();
+
+    @Test
+    void parsesDatesAtUtcMidnight() throws ParseException {
+        assertEquals(MARCH_1, dates.parse("20240301", null));
+        assertEquals(MARCH_1, dates.parse("20240301", "America/New_York"));
+    }
+
+    @Test
+    void parsesUtcTimesWhateverTheZone() throws ParseException {
+        assertEquals(MARCH_1 + 10 * HOUR, dates.parse("20240301T100000Z", null));
+        assertEquals(MARCH_1 + 10 * HOUR, dates.parse(" 20240301T100000Z ", "Asia/Tokyo"));
+    }
+
+    @Test
+    void parsesLocalTimesInTheirZone() throws ParseException {
+        assertEquals(MARCH_1 + 9 * HOUR, dates.parse("20240301T100000", "Europe/Paris"));
+        // Daylight saving time.
+        assertEquals(MARCH_1 + (31 + 30 + 31) * 24 * HOUR + 8 * HOUR,
+                dates.parse("20240601T100000", "Europe/Paris"));
+    }
+
+    @Test
+    void formatsInUtcDatesAndLocalTimes() {
+        assertEquals("20240301T100000Z", dates.formatUtc(MARCH_1 + 10 * HOUR));
+        assertEquals("20240301", dates.formatDate(MARCH_1));
+        assertEquals("20240301T100000", dates.formatLocal(MARCH_1 + 9 * HOUR, "Europe/Paris"));
+    }
+
+    @Test
+    void parsesTriggersBeforeTheStart() {
+        assertEquals(15, IcsDates.parseTriggerMinutes("-PT15M"));
+        assertEquals(1500, IcsDates.parseTriggerMinutes("-P1DT1H"));
+        assertEquals(0, IcsDates.parseTriggerMinutes("PT0S"));
+        assertEquals(-1, IcsDates.parseTriggerMinutes("PT5M"));
+        assertEquals(-1, IcsDates.parseTriggerMinutes("20240301T100000Z"));
+    }
+
+    @Test
+    void formatsDurations() {
+        assertEquals("PT1H", IcsDates.formatDuration(3600, false));
+        assertEquals("PT24H", IcsDates.formatDuration(86400, false));
+        assertEquals("PT1H1S", IcsDates.formatDuration(3601, false));
+        assertEquals("PT0S", IcsDates.formatDuration(0, false));
+        assertEquals("P1D", IcsDates.formatDuration(86400, true));
+        assertEquals("P1DT2H", IcsDates.formatDuration(93600, true));
+    }
+
+    @Test
+    void findsZoneTransitions() {
+        TimeZone paris = TimeZone.getTimeZone("Europe/Paris");
+        // 2024-03-31T01:00Z and 2024-10-27T01:00Z.
+        assertEquals(Arrays.asList(1711846800000L, 1729990800000L),
+                IcsDates.transitions(paris, 2024));
+        assertEquals(Collections.emptyList(),
+                IcsDates.transitions(TimeZone.getTimeZone("Asia/Tokyo"), 2024));
+        assertEquals("+0530", IcsDates.formatOffset(TimeZone.getTimeZone("Asia/Kolkata")
+                .getRawOffset()));
+        assertEquals("-0300", IcsDates.formatOffset(-3 * 3600000));
+    }
+
+    @Test
+    void parsesDurations() {
+        assertEquals(93600, IcsDates.parseDurationSeconds("P1DT2H"));
+        assertEquals(7 * 86400, IcsDates.parseDurationSeconds("P1W"));
+        assertEquals(90, IcsDates.parseDurationSeconds("PT1M30S"));
+        // The provider's form, without the time designator.
+        assertEquals(3600, IcsDates.parseDurationSeconds("P3600S"));
+        assertEquals(-1, IcsDates.parseDurationSeconds("PTM"));
+        assertEquals(-1, IcsDates.parseDurationSeconds("P1Y"));
+    }
+}
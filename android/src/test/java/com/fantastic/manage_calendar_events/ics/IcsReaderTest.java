@@ -0,0 +1,172 @@
+package com.fantastic.manage_calendar_events.ics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+
+import org.junit.jupiter.api.Test;
+
+class IcsReaderTest {
+
+    // 2024-03-01T00:00:00Z
+    private static final long MARCH_1 = 1709251200000L;
+    private static final long HOUR = 3600000L;
+
+    private static IcsEvent read(String... lines) throws IOException {
+        StringBuilder ics = new StringBuilder("BEGIN:VCALENDAR\r\n");
+        for (String line : lines) {
+            ics.append(line).append("\r\n");
+        }
+        ics.append("END:VCALENDAR\r\n");
+        try (IcsReader reader = new IcsReader(new StringReader(ics.toString()))) {
+            return reader.next();
+        }
+    }
+
+    @Test
+    void unfoldsContinuationLines() throws IOException {
+        IcsEvent event = read(
+                "BEGIN:VEVENT",
+                "DTSTART:20240301T100000Z",
+                "SUMMARY:A title fol",
+                " ded with a space",
+                "DESCRIPTION:and with",
+                "\ta tab",
+                "END:VEVENT");
+        assertEquals("A title folded with a space", event.title);
+        assertEquals("and witha tab", event.description);
+    }
+
+    @Test
+    void resolvesTextEscapes() throws IOException {
+        IcsEvent event = read(
+                "BEGIN:VEVENT",
+                "DTSTART:20240301T100000Z",
+                "SUMMARY:Lunch\\, then\\; talk",
+                "DESCRIPTION:first\\nsecond\\Nthird \\\\ done",
+                "END:VEVENT");
+        assertEquals("Lunch, then; talk", event.title);
+        assertEquals("first\nsecond\nthird \\ done", event.description);
+    }
+
+    @Test
+    void readsDatesAsAllDayAtUtcMidnight() throws IOException {
+        IcsEvent event = read(
+                "BEGIN:VEVENT",
+                "DTSTART;VALUE=DATE:20240301",
+                "DTEND;VALUE=DATE:20240302",
+                "END:VEVENT");
+        assertTrue(event.isAllDay);
+        assertEquals(MARCH_1, event.startDate);
+        assertEquals(MARCH_1 + 24 * HOUR, event.endDate);
+    }
+
+    @Test
+    void readsTimesInTheirZone() throws IOException {
+        IcsEvent event = read(
+                "BEGIN:VEVENT",
+                "DTSTART;TZID=Europe/Paris:20240301T100000",
+                "DTEND;TZID=\"Europe/Paris\":20240301T110000",
+                "END:VEVENT");
+        assertFalse(event.isAllDay);
+        assertEquals("Europe/Paris", event.timeZone);
+        assertEquals(MARCH_1 + 9 * HOUR, event.startDate);
+        assertEquals(MARCH_1 + 10 * HOUR, event.endDate);
+    }
+
+    @Test
+    void readsRecurrenceExceptions() throws IOException {
+        IcsEvent event = read(
+                "BEGIN:VEVENT",
+                "UID:series@example.com",
+                "RECURRENCE-ID;TZID=Europe/Paris:20240301T100000",
+                "DTSTART;TZID=Europe/Paris:20240301T140000",
+                "STATUS:cancelled",
+                "END:VEVENT");
+        assertEquals("series@example.com", event.uid);
+        assertEquals(MARCH_1 + 9 * HOUR, event.originalStartDate);
+        assertFalse(event.originalAllDay);
+        assertEquals("CANCELLED", event.status);
+    }
+
+    @Test
+    void readsExcludedDates() throws IOException {
+        IcsEvent event = read(
+                "BEGIN:VEVENT",
+                "DTSTART:20240301T100000Z",
+                "RRULE:FREQ=DAILY",
+                "EXDATE:20240302T100000Z,20240303T100000Z",
+                "EXDATE;VALUE=DATE:20240305",
+                "END:VEVENT");
+        assertEquals("FREQ=DAILY", event.rRule);
+        assertEquals(Arrays.asList(MARCH_1 + 34 * HOUR, MARCH_1 + 58 * HOUR,
+                MARCH_1 + 96 * HOUR), event.exDates);
+    }
+
+    @Test
+    void readsAlarmsOfNestedComponents() throws IOException {
+        IcsEvent event = read(
+                "BEGIN:VEVENT",
+                "DTSTART:20240301T100000Z",
+                "BEGIN:VALARM",
+                "TRIGGER:-PT15M",
+                "SUMMARY:Not the event's",
+                "END:VALARM",
+                "END:VEVENT");
+        assertEquals(Collections.singletonList(15), event.reminderMinutes);
+        assertNull(event.title);
+    }
+
+    @Test
+    void convertsAlarmsRelatedToTheEnd() throws IOException {
+        IcsEvent event = read(
+                "BEGIN:VEVENT",
+                "DTSTART:20240301T100000Z",
+                "BEGIN:VALARM",
+                "TRIGGER;RELATED=END:-PT90M",
+                "END:VALARM",
+                "BEGIN:VALARM",
+                "TRIGGER;RELATED=END:-PT15M",
+                "END:VALARM",
+                "DTEND:20240301T110000Z",
+                "END:VEVENT");
+        // 30 minutes before the start; the second one goes off after it.
+        assertEquals(Collections.singletonList(30), event.reminderMinutes);
+    }
+
+    @Test
+    void skipsEventsWithoutStart() throws IOException {
+        String ics = "BEGIN:VEVENT\r\nSUMMARY:No start\r\nEND:VEVENT\r\n"
+                + "BEGIN:VEVENT\r\nDTSTART:20240301T100000Z\r\nSUMMARY:Kept\r\nEND:VEVENT\r\n";
+        try (IcsReader reader = new IcsReader(new StringReader(ics))) {
+            assertEquals("Kept", reader.next().title);
+            assertNull(reader.next());
+            assertEquals(1, reader.getSkipped());
+        }
+    }
+
+    @Test
+    void readsLowerCaseNamesInAnyLocale() throws IOException {
+        Locale locale = Locale.getDefault();
+        // Upper-casing "i" gives a dotted capital I in Turkish.
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            IcsEvent event = read(
+                    "begin:vevent",
+                    "dtstart;value=date:20240301",
+                    "summary:Lower",
+                    "end:vevent");
+            assertEquals("Lower", event.title);
+            assertTrue(event.isAllDay);
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+}
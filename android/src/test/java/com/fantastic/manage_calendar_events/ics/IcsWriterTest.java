@@ -0,0 +1,202 @@
+package com.fantastic.manage_calendar_events.ics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class IcsWriterTest {
+
+    // 2024-03-01T00:00:00Z
+    private static final long MARCH_1 = 1709251200000L;
+    private static final long HOUR = 3600000L;
+
+    private static String write(IcsEvent event) throws IOException {
+        StringWriter out = new StringWriter();
+        IcsWriter writer = new IcsWriter(out);
+        writer.beginCalendar();
+        writer.writeEvent(event);
+        writer.endCalendar();
+        writer.flush();
+        return out.toString();
+    }
+
+    private static List<String> lines(String ics) {
+        return Arrays.asList(ics.split("\r\n"));
+    }
+
+    private static IcsEvent event() {
+        IcsEvent event = new IcsEvent();
+        event.uid = "1@manage_calendar_events";
+        event.title = "Title";
+        event.startDate = MARCH_1 + 10 * HOUR;
+        event.endDate = MARCH_1 + 11 * HOUR;
+        return event;
+    }
+
+    @Test
+    void foldsLongLines() throws IOException {
+        IcsEvent event = event();
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            title.append((char) ('a' + i % 26));
+        }
+        event.title = title.toString();
+        String ics = write(event);
+
+        for (String line : lines(ics)) {
+            assertTrue(line.length() <= 75, line);
+        }
+        assertTrue(ics.contains("\r\n "));
+        try (IcsReader reader = new IcsReader(new StringReader(ics))) {
+            assertEquals(event.title, reader.next().title);
+        }
+    }
+
+    @Test
+    void escapesText() throws IOException {
+        IcsEvent event = event();
+        event.title = "Lunch, then; talk";
+        event.description = "first\r\nsecond \\ done";
+        List<String> lines = lines(write(event));
+        assertTrue(lines.contains("SUMMARY:Lunch\\, then\\; talk"));
+        assertTrue(lines.contains("DESCRIPTION:first\\nsecond \\\\ done"));
+    }
+
+    @Test
+    void writesAllDayEventsAsDates() throws IOException {
+        IcsEvent event = event();
+        event.isAllDay = true;
+        event.startDate = MARCH_1;
+        event.endDate = MARCH_1 + 24 * HOUR;
+        List<String> lines = lines(write(event));
+        assertTrue(lines.contains("DTSTART;VALUE=DATE:20240301"));
+        assertTrue(lines.contains("DTEND;VALUE=DATE:20240302"));
+    }
+
+    @Test
+    void writesUtcTimesWithoutZone() throws IOException {
+        List<String> lines = lines(write(event()));
+        assertTrue(lines.contains("DTSTART:20240301T100000Z"));
+        assertTrue(lines.contains("DTEND:20240301T110000Z"));
+    }
+
+    @Test
+    void normalizesDurations() throws IOException {
+        IcsEvent event = event();
+        event.endDate = -1;
+        event.duration = "P5400S";
+        assertTrue(lines(write(event)).contains("DURATION:PT1H30M"));
+
+        event.isAllDay = true;
+        event.duration = "P2D";
+        assertTrue(lines(write(event)).contains("DURATION:P2D"));
+    }
+
+    @Test
+    void writesRemindersAsTriggersAndSkipsTheDefault() throws IOException {
+        IcsEvent event = event();
+        event.reminderMinutes.add(-1);
+        event.reminderMinutes.add(90);
+        event.reminderMinutes.add(0);
+        List<String> triggers = new ArrayList<>();
+        for (String line : lines(write(event))) {
+            if (line.startsWith("TRIGGER")) {
+                triggers.add(line);
+            }
+        }
+        assertEquals(Arrays.asList("TRIGGER:-PT1H30M", "TRIGGER:-PT0S"), triggers);
+    }
+
+    @Test
+    void writesTheZonesItReferences() throws IOException {
+        IcsEvent event = event();
+        event.timeZone = "Europe/Paris";
+        String ics = write(event);
+        List<String> lines = lines(ics);
+        assertTrue(lines.contains("TZID:Europe/Paris"));
+        assertEquals(1, lines.subList(lines.indexOf("BEGIN:VTIMEZONE"), lines.size())
+                .indexOf("TZID:Europe/Paris"));
+        String daylight = String.join("\n", lines.subList(lines.indexOf("BEGIN:DAYLIGHT"),
+                lines.indexOf("END:DAYLIGHT")));
+        assertEquals("BEGIN:DAYLIGHT\nDTSTART:19700329T020000\nTZOFFSETFROM:+0100\n"
+                + "TZOFFSETTO:+0200\nRRULE:FREQ=YEARLY;BYMONTH=3;BYDAY=-1SU", daylight);
+        String standard = String.join("\n", lines.subList(lines.indexOf("BEGIN:STANDARD"),
+                lines.indexOf("END:STANDARD")));
+        assertEquals("BEGIN:STANDARD\nDTSTART:19701025T030000\nTZOFFSETFROM:+0200\n"
+                + "TZOFFSETTO:+0100\nRRULE:FREQ=YEARLY;BYMONTH=10;BYDAY=-1SU", standard);
+
+        // UTC times need no zone.
+        assertFalse(write(event()).contains("VTIMEZONE"));
+    }
+
+    @Test
+    void writesSeriesInTheirZone() throws IOException {
+        IcsEvent event = event();
+        event.timeZone = "Europe/Paris";
+        event.endDate = -1;
+        event.duration = "PT3600S";
+        event.rRule = "FREQ=WEEKLY";
+        event.exDates.add(MARCH_1 + 7 * 24 * HOUR + 10 * HOUR);
+        event.exDates.add(MARCH_1 + 14 * 24 * HOUR + 10 * HOUR);
+        List<String> lines = lines(write(event));
+        assertTrue(lines.contains("DTSTART;TZID=Europe/Paris:20240301T110000"));
+        assertTrue(lines.contains("DURATION:PT1H"));
+        assertTrue(lines.contains("RRULE:FREQ=WEEKLY"));
+        assertTrue(lines.contains("EXDATE;TZID=Europe/Paris:20240308T110000,20240315T110000"));
+    }
+
+    @Test
+    void writesExceptionsWithTheirRecurrenceId() throws IOException {
+        IcsEvent event = event();
+        event.originalStartDate = MARCH_1 + 9 * HOUR;
+        event.status = "CANCELLED";
+        List<String> lines = lines(write(event));
+        assertTrue(lines.contains("RECURRENCE-ID:20240301T090000Z"));
+        assertTrue(lines.contains("STATUS:CANCELLED"));
+
+        event.originalAllDay = true;
+        event.originalStartDate = MARCH_1;
+        assertTrue(lines(write(event)).contains("RECURRENCE-ID;VALUE=DATE:20240301"));
+    }
+
+    @Test
+    void readsBackWhatItWrites() throws IOException {
+        IcsEvent event = event();
+        event.timeZone = "Europe/Paris";
+        event.description = "Line one\nLine two, with; separators";
+        event.location = "Room 1";
+        event.rRule = "FREQ=DAILY;COUNT=5";
+        event.exDates.add(MARCH_1 + 34 * HOUR);
+        event.reminderMinutes.add(10);
+        event.attendees.add(new IcsEvent.Attendee("Ann", "ann@example.com", true));
+
+        IcsEvent read;
+        try (IcsReader reader = new IcsReader(new StringReader(write(event)))) {
+            read = reader.next();
+        }
+        assertEquals(event.uid, read.uid);
+        assertEquals(event.title, read.title);
+        assertEquals(event.description, read.description);
+        assertEquals(event.location, read.location);
+        assertEquals(event.startDate, read.startDate);
+        assertEquals(event.endDate, read.endDate);
+        assertEquals(event.timeZone, read.timeZone);
+        assertEquals(event.rRule, read.rRule);
+        assertEquals(event.exDates, read.exDates);
+        assertEquals(event.reminderMinutes, read.reminderMinutes);
+        List<String> attendees = new ArrayList<>();
+        for (IcsEvent.Attendee attendee : read.attendees) {
+            attendees.add(attendee.name + " " + attendee.emailAddress + " " + attendee.isOrganiser);
+        }
+        assertEquals(Arrays.asList("Ann ann@example.com true"), attendees);
+    }
+}
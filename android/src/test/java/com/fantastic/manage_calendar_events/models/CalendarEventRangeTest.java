@@ -0,0 +1,63 @@
+package com.fantastic.manage_calendar_events.models;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class CalendarEventRangeTest {
+
+  private static CalendarEvent event(String id, long start) {
+    return new CalendarEvent(id, id, null, start, start + 10, null, null, false, false);
+  }
+
+  private static EventSeries series(String id, long... begins) {
+    long[] ends = new long[begins.length];
+    for (int i = 0; i < begins.length; i++) {
+      ends[i] = begins[i] + 10;
+    }
+    return new EventSeries(event(id, begins.length > 0 ? begins[0] : 0), begins, ends);
+  }
+
+  private static List<String> keys(List<CalendarEvent> events) {
+    List<String> keys = new ArrayList<>();
+    for (CalendarEvent event : events) {
+      keys.add(event.getEventId() + "@" + event.getStartDate());
+    }
+    return keys;
+  }
+
+  private static CalendarEventRange range() {
+    CalendarEventRange range = new CalendarEventRange();
+    range.addEvent(event("a", 100));
+    range.addEvent(event("b", 300));
+    range.addEvent(event("c", 300));
+    range.addSeries(series("s", 50, 300, 500));
+    range.addSeries(series("t", 200, 300));
+    range.addSeries(series("empty"));
+    return range;
+  }
+
+  @Test
+  void mergesInStartOrderWithTiesInSourceOrder() {
+    assertEquals(Arrays.asList("s@50", "a@100", "t@200", "b@300", "c@300", "s@300", "t@300", "s@500"),
+        keys(range().toList()));
+  }
+
+  @Test
+  void stopsAtTheLimit() {
+    assertEquals(Arrays.asList("s@50", "a@100", "t@200", "b@300"), keys(range().toList(4)));
+    assertEquals(Collections.emptyList(), keys(range().toList(0)));
+    assertEquals(8, range().toList(100).size());
+  }
+
+  @Test
+  void sizeCountsEveryOccurrence() {
+    assertEquals(8, range().size());
+    assertEquals(0, new CalendarEventRange().toList().size());
+  }
+}
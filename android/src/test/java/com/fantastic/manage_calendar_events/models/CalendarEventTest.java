@@ -0,0 +1,63 @@
+package com.fantastic.manage_calendar_events.models;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class CalendarEventTest {
+
+  private static CalendarEvent event() {
+    return new CalendarEvent("1", "Title", null, 100, 200, "Room", null, false, false);
+  }
+
+  @Test
+  void startsClean() {
+    assertEquals(0, event().getDirtyFields());
+  }
+
+  @Test
+  void marksChangedFields() {
+    CalendarEvent event = event();
+    event.setTitle("Other");
+    event.setDescription("Text");
+    event.setStartDate(150);
+    event.setAllDay(true);
+    assertEquals(CalendarEvent.FIELD_TITLE | CalendarEvent.FIELD_DESCRIPTION
+        | CalendarEvent.FIELD_START_DATE | CalendarEvent.FIELD_ALL_DAY, event.getDirtyFields());
+    assertTrue(event.isDirty(CalendarEvent.FIELD_START_DATE));
+    assertFalse(event.isDirty(CalendarEvent.FIELD_END_DATE));
+  }
+
+  @Test
+  void ignoresSettingTheCurrentValue() {
+    CalendarEvent event = event();
+    event.setTitle("Title");
+    event.setDescription(null);
+    event.setStartDate(100);
+    event.setEndDate(200);
+    event.setLocation("Room");
+    event.setUrl(null);
+    event.setAllDay(false);
+    event.setHasAlarm(false);
+    assertEquals(0, event.getDirtyFields());
+  }
+
+  @Test
+  void staysDirtyWhenChangedBack() {
+    CalendarEvent event = event();
+    event.setLocation("Elsewhere");
+    event.setLocation("Room");
+    assertEquals(CalendarEvent.FIELD_LOCATION, event.getDirtyFields());
+  }
+
+  @Test
+  void clearsDirtyFields() {
+    CalendarEvent event = event();
+    event.setUrl("https://example.com");
+    event.setHasAlarm(true);
+    event.clearDirtyFields();
+    assertEquals(0, event.getDirtyFields());
+  }
+}
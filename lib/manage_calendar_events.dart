@@ -3,8 +3,17 @@ library manage_calendar_events;
 import 'dart:async';
 import 'dart:convert';
 
+import 'package:collection/collection.dart' show PriorityQueue;
 import 'package:flutter/services.dart';
 
 part 'src/calendar_plugin.dart';
+part 'src/model/alarm.dart';
 part 'src/model/calendar.dart';
 part 'src/model/calendar_event.dart';
+part 'src/model/calendar_changes.dart';
+part 'src/model/calendar_event_range.dart';
+part 'src/model/date_range.dart';
+part 'src/model/duplicate_cluster.dart';
+part 'src/model/event_filter.dart';
+part 'src/model/ics_progress.dart';
+part 'src/model/write_commit.dart';
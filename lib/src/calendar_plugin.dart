@@ -3,6 +3,16 @@ part of manage_calendar_events;
 class CalendarPlugin {
   static const MethodChannel _channel =
       const MethodChannel('manage_calendar_events');
+  static const EventChannel _eventChannel =
+      const EventChannel('manage_calendar_events/events');
+  static Stream<Map<dynamic, dynamic>>? _events;
+  static int _nextSubscriptionId = 0;
+
+  /// Events pushed by the native side, each one carries a `type`
+  Stream<Map<dynamic, dynamic>> get _nativeEvents =>
+      _events ??= _eventChannel
+          .receiveBroadcastStream()
+          .map((event) => event as Map<dynamic, dynamic>);
 
   static Future<String?> get platformVersion async {
     final String? version = await _channel.invokeMethod('getPlatformVersion');
@@ -21,7 +31,9 @@ class CalendarPlugin {
     return hasPermission;
   }
 
-  /// Request the app to fetch the permissions to access the calendar
+  /// Request the app to fetch the permissions to access the calendar.
+  /// On Android this needs a visible activity, it fails in background
+  /// isolates which can only use the permissions granted before
   Future<void> requestPermissions() async {
     try {
       await _channel.invokeMethod('requestPermissions');
@@ -47,11 +59,21 @@ class CalendarPlugin {
   }
 
   /// Returns all the available events in the selected calendar
-  Future<List<CalendarEvent>?> getEvents({required String calendarId}) async {
+  ///
+  /// Pass a [requestId] to be able to abort the read with [cancel].
+  Future<List<CalendarEvent>?> getEvents({
+    required String calendarId,
+    String? requestId,
+    EventFilter? filter,
+  }) async {
     List<CalendarEvent>? events = [];
     try {
-      String eventsJson = await _channel.invokeMethod(
-          'getEvents', <String, Object?>{'calendarId': calendarId});
+      String eventsJson =
+          await _channel.invokeMethod('getEvents', <String, Object?>{
+        'calendarId': calendarId,
+        'requestId': requestId,
+        'filter': filter?.toJson(),
+      });
       events =
           json.decode(eventsJson).map<CalendarEvent>((decodedCalendarEvent) {
         return CalendarEvent.fromJson(decodedCalendarEvent);
@@ -63,18 +85,53 @@ class CalendarPlugin {
   }
 
   /// Returns all the available events on the given date Range
+  ///
+  /// Pass a [requestId] to be able to abort the read with [cancel].
+  /// With [prefetchAdjacent] the windows of the same length right before and
+  /// after are loaded in the background, [prefetchRanges] names the windows
+  /// to load explicitly. They are served without a new read until the
+  /// calendar changes.
+  /// With [collapseDuplicates] only the first of the events sharing the same
+  /// title, start, end, location and all-day flag is returned.
+  /// [otherCalendarIds] are read along with [calendarId] and their events
+  /// merged in start order, so that [collapseDuplicates] also drops the
+  /// copies an event has in several calendars. The copy of the calendar
+  /// listed first is kept.
   Future<List<CalendarEvent>?> getEventsByDateRange({
     required String calendarId,
     required DateTime startDate,
     required DateTime endDate,
+    List<String>? otherCalendarIds,
+    String? requestId,
+    bool prefetchAdjacent = false,
+    List<DateRange>? prefetchRanges,
+    bool collapseDuplicates = false,
+    EventFilter? filter,
   }) async {
     List<CalendarEvent>? events = [];
+    if (prefetchRanges == null && prefetchAdjacent) {
+      Duration length = endDate.difference(startDate);
+      prefetchRanges = [
+        DateRange(start: startDate.subtract(length), end: startDate),
+        DateRange(start: endDate, end: endDate.add(length)),
+      ];
+    }
     try {
       String eventsJson =
           await _channel.invokeMethod('getEventsByDateRange', <String, Object?>{
         'calendarId': calendarId,
         'startDate': startDate.millisecondsSinceEpoch,
         'endDate': endDate.millisecondsSinceEpoch,
+        'requestId': requestId,
+        'otherCalendarIds': otherCalendarIds,
+        'collapseDuplicates': collapseDuplicates,
+        'filter': filter?.toJson(),
+        'prefetch': prefetchRanges
+            ?.map((range) => <String, Object?>{
+                  'startDate': range.start.millisecondsSinceEpoch,
+                  'endDate': range.end.millisecondsSinceEpoch,
+                })
+            .toList(),
       });
       events =
           json.decode(eventsJson).map<CalendarEvent>((decodedCalendarEvent) {
@@ -86,31 +143,202 @@ class CalendarPlugin {
     return events;
   }
 
+  /// Returns the events on the given date Range with the occurrences of
+  /// recurring events grouped per series, which keeps large ranges small.
+  /// Deferred updates aren't applied until written, see [updateEvent].
+  Future<CalendarEventRange?> getEventRangeByDateRange({
+    required String calendarId,
+    required DateTime startDate,
+    required DateTime endDate,
+    String? requestId,
+    EventFilter? filter,
+  }) async {
+    CalendarEventRange? range;
+    try {
+      String rangeJson = await _channel
+          .invokeMethod('getEventRangeByDateRange', <String, Object?>{
+        'calendarId': calendarId,
+        'startDate': startDate.millisecondsSinceEpoch,
+        'endDate': endDate.millisecondsSinceEpoch,
+        'requestId': requestId,
+        'filter': filter?.toJson(),
+      });
+      range = CalendarEventRange.fromJson(json.decode(rangeJson));
+    } catch (e) {
+      print(e);
+    }
+    return range;
+  }
+
+  /// Returns the first [limit] events, by start date, overlapping the window
+  /// from [startDate] until [endDate] (a year later by default). Recurring
+  /// events past the first [limit] starts are never expanded
+  Future<List<CalendarEvent>?> getNextEvents({
+    required String calendarId,
+    required DateTime startDate,
+    DateTime? endDate,
+    required int limit,
+    String? requestId,
+    EventFilter? filter,
+  }) async {
+    List<CalendarEvent>? events = [];
+    endDate ??= startDate.add(Duration(days: 365));
+    try {
+      String eventsJson =
+          await _channel.invokeMethod('getNextEvents', <String, Object?>{
+        'calendarId': calendarId,
+        'startDate': startDate.millisecondsSinceEpoch,
+        'endDate': endDate.millisecondsSinceEpoch,
+        'limit': limit,
+        'requestId': requestId,
+        'filter': filter?.toJson(),
+      });
+      events =
+          json.decode(eventsJson).map<CalendarEvent>((decodedCalendarEvent) {
+        return CalendarEvent.fromJson(decodedCalendarEvent);
+      }).toList();
+    } catch (e) {
+      print(e);
+    }
+    return events;
+  }
+
+  /// Returns the next [limit] alarms, across every calendar, firing between
+  /// [now] and [until] (a week later by default), ordered by alarm time
+  Future<List<Alarm>?> getUpcomingAlarms({
+    required DateTime now,
+    DateTime? until,
+    required int limit,
+    String? requestId,
+  }) async {
+    List<Alarm>? alarms = [];
+    until ??= now.add(Duration(days: 7));
+    try {
+      String alarmsJson =
+          await _channel.invokeMethod('getUpcomingAlarms', <String, Object?>{
+        'now': now.millisecondsSinceEpoch,
+        'until': until.millisecondsSinceEpoch,
+        'limit': limit,
+        'requestId': requestId,
+      });
+      alarms = json.decode(alarmsJson).map<Alarm>((decodedAlarm) {
+        return Alarm.fromJson(decodedAlarm);
+      }).toList();
+    } catch (e) {
+      print(e);
+    }
+    return alarms;
+  }
+
+  /// Finds the events between [startDate] and [endDate] which are duplicated
+  /// within or across the calendars, typically the same account synced by
+  /// several adapters
+  Future<List<DuplicateCluster>?> findDuplicates({
+    required List<String> calendarIds,
+    required DateTime startDate,
+    required DateTime endDate,
+    String? requestId,
+    EventFilter? filter,
+  }) async {
+    List<DuplicateCluster>? clusters = [];
+    try {
+      List<dynamic> result =
+          await _channel.invokeMethod('findDuplicates', <String, Object?>{
+        'calendarIds': calendarIds,
+        'startDate': startDate.millisecondsSinceEpoch,
+        'endDate': endDate.millisecondsSinceEpoch,
+        'requestId': requestId,
+        'filter': filter?.toJson(),
+      });
+      clusters = result
+          .map<DuplicateCluster>(
+              (cluster) => DuplicateCluster.fromJson(cluster as List<dynamic>))
+          .toList();
+    } catch (e) {
+      print(e);
+    }
+    return clusters;
+  }
+
+  /// Aborts the read started with the given [requestId]. Like on any other
+  /// failure, the aborted call then returns an empty list, or null for
+  /// [getEventRangeByDateRange], [importIcs] and [exportIcs]. Returns false
+  /// if the read already finished
+  Future<bool?> cancel({required String requestId}) async {
+    bool? isCancelled = false;
+    try {
+      isCancelled = await _channel.invokeMethod(
+          'cancel', <String, Object?>{'requestId': requestId});
+    } catch (e) {
+      print(e);
+    }
+    return isCancelled;
+  }
+
   /// Returns all the available events on the given date Range
+  ///
+  /// With [prefetchAdjacent] the previous and next months are loaded in the
+  /// background.
   Future<List<CalendarEvent>?> getEventsByMonth({
     required String calendarId,
     required DateTime findDate,
+    bool prefetchAdjacent = false,
   }) async {
     DateTime startDate = findFirstDateOfTheMonth(findDate);
     DateTime endDate = findLastDateOfTheMonth(findDate);
 
+    List<DateRange>? prefetchRanges;
+    if (prefetchAdjacent) {
+      DateTime previous = DateTime.utc(findDate.year, findDate.month - 1, 1);
+      DateTime next = DateTime.utc(findDate.year, findDate.month + 1, 1);
+      prefetchRanges = [
+        DateRange(
+            start: findFirstDateOfTheMonth(previous),
+            end: findLastDateOfTheMonth(previous)),
+        DateRange(
+            start: findFirstDateOfTheMonth(next),
+            end: findLastDateOfTheMonth(next)),
+      ];
+    }
+
     return getEventsByDateRange(
-        calendarId: calendarId, startDate: startDate, endDate: endDate);
+        calendarId: calendarId,
+        startDate: startDate,
+        endDate: endDate,
+        prefetchRanges: prefetchRanges);
   }
 
   /// Returns all the available events on the given date Range
+  ///
+  /// With [prefetchAdjacent] the previous and next weeks are loaded in the
+  /// background.
   Future<List<CalendarEvent>?> getEventsByWeek({
     required String calendarId,
     required DateTime findDate,
+    bool prefetchAdjacent = false,
   }) async {
     DateTime startDate = findFirstDateOfTheWeek(findDate);
     DateTime endDate = findLastDateOfTheWeek(findDate);
 
+    List<DateRange>? prefetchRanges;
+    if (prefetchAdjacent) {
+      prefetchRanges = [-7, 7].map((days) {
+        DateTime date = findDate.add(Duration(days: days));
+        return DateRange(
+            start: findFirstDateOfTheWeek(date),
+            end: findLastDateOfTheWeek(date));
+      }).toList();
+    }
+
     return getEventsByDateRange(
-        calendarId: calendarId, startDate: startDate, endDate: endDate);
+        calendarId: calendarId,
+        startDate: startDate,
+        endDate: endDate,
+        prefetchRanges: prefetchRanges);
   }
 
-  /// Helps to create an event in the selected calendar
+  /// Helps to create an event in the selected calendar. Returns the id of the
+  /// new event, or null when it couldn't be written.
   Future<String?> createEvent({
     required String calendarId,
     required CalendarEvent event,
@@ -145,10 +373,20 @@ class CalendarPlugin {
     return eventId;
   }
 
-  /// Helps to update the edited event
+  /// Helps to update the edited event. Returns its id, or null when the event
+  /// doesn't exist or couldn't be written.
+  ///
+  /// With [deferred] the update is queued and written shortly after, together
+  /// with the latest values of the other queued events; intermediate values
+  /// of an event updated again in the meantime are never written.
+  /// [getEvents], [getEventsByDateRange] and [getNextEvents] already return
+  /// the queued values; [getEventRangeByDateRange] and [watch] only see them
+  /// once written. Follow [writeCommits] for the outcome and call
+  /// [flushPendingUpdates] to write the queue right away.
   Future<String?> updateEvent({
     required String calendarId,
     required CalendarEvent event,
+    bool deferred = false,
   }) async {
     String? eventId;
 
@@ -172,6 +410,7 @@ class CalendarPlugin {
                   .map((attendee) => attendee.toJson())
                   .toList()
               : null,
+          'deferred': deferred,
         },
       );
     } catch (e) {
@@ -180,6 +419,80 @@ class CalendarPlugin {
     return eventId;
   }
 
+  /// Updates only the given fields of the event, the others, including those
+  /// passed as null, are left untouched; a patch thus can't clear a text.
+  /// Only the fields whose value actually changes are written, so moving an
+  /// event doesn't rewrite its description. Returns false when the event
+  /// doesn't exist or couldn't be written; like [updateEvent], a patch which
+  /// changes nothing succeeds. Values still queued for the event by a
+  /// deferred [updateEvent] are written first, so both changes are kept
+  Future<bool?> patchEvent({
+    required String calendarId,
+    required String eventId,
+    String? title,
+    String? description,
+    DateTime? startDate,
+    DateTime? endDate,
+    String? location,
+    String? url,
+    bool? isAllDay,
+    bool? hasAlarm,
+  }) async {
+    bool? isWritten = false;
+    try {
+      isWritten = await _channel.invokeMethod('patchEvent', <String, Object?>{
+        'calendarId': calendarId,
+        'eventId': eventId,
+        'changes': <String, Object?>{
+          if (title != null) 'title': title,
+          if (description != null) 'description': description,
+          if (startDate != null) 'startDate': startDate.millisecondsSinceEpoch,
+          if (endDate != null) 'endDate': endDate.millisecondsSinceEpoch,
+          if (location != null) 'location': location,
+          if (url != null) 'url': url,
+          if (isAllDay != null) 'isAllDay': isAllDay,
+          if (hasAlarm != null) 'hasAlarm': hasAlarm,
+        },
+      });
+    } catch (e) {
+      print(e);
+    }
+    return isWritten;
+  }
+
+  /// Outcome of every deferred update once written
+  Stream<WriteCommit> get writeCommits => _nativeEvents
+      .where((event) => event['type'] == 'writeCommitted')
+      .map((event) => WriteCommit.fromJson(event));
+
+  /// Writes the deferred updates right away and returns the number of events
+  /// written successfully
+  Future<int?> flushPendingUpdates() async {
+    int? written;
+    try {
+      written = await _channel.invokeMethod('flushPendingUpdates');
+    } catch (e) {
+      print(e);
+    }
+    return written;
+  }
+
+  /// Sets the window length from which Android splits [getEventsByDateRange]
+  /// reads into sub-ranges read in parallel. Reads are serial by default, and
+  /// null turns the splitting off again. Split reads take the occurrences as
+  /// expanded by the provider, so cancelled occurrences of a recurring event
+  /// aren't returned and events stored with a duration get their computed
+  /// end, where serial reads may differ.
+  Future<void> setParallelReadThreshold(Duration? threshold) async {
+    try {
+      await _channel.invokeMethod('setParallelReadThreshold', <String, Object?>{
+        'threshold': threshold?.inMilliseconds,
+      });
+    } catch (e) {
+      print(e);
+    }
+  }
+
   /// Deletes the selected event in the selected calendar
   Future<bool?> deleteEvent({
     required String calendarId,
@@ -315,6 +628,100 @@ class CalendarPlugin {
     }
   }
 
+  /// Watches the events of the calendar between [startDate] and [endDate].
+  /// Changes made by anyone, including sync adapters, are batched and only
+  /// the added, changed and removed events are delivered. The window is
+  /// watched until the subscription is cancelled. Deferred updates are
+  /// delivered once written.
+  Stream<CalendarChanges> watch({
+    required String calendarId,
+    required DateTime startDate,
+    required DateTime endDate,
+  }) {
+    final String subscriptionId = 'watch-${_nextSubscriptionId++}';
+    late StreamController<CalendarChanges> controller;
+    StreamSubscription<Map<dynamic, dynamic>>? subscription;
+    controller = StreamController<CalendarChanges>(
+      onListen: () {
+        subscription = _nativeEvents
+            .where((event) =>
+                event['type'] == 'changes' &&
+                event['subscriptionId'] == subscriptionId)
+            .map((event) => CalendarChanges.fromJson(event))
+            .listen(controller.add, onError: controller.addError);
+        _channel.invokeMethod('watch', <String, Object?>{
+          'subscriptionId': subscriptionId,
+          'calendarId': calendarId,
+          'startDate': startDate.millisecondsSinceEpoch,
+          'endDate': endDate.millisecondsSinceEpoch,
+        }).catchError((e) => controller.addError(e));
+      },
+      onCancel: () async {
+        await subscription?.cancel();
+        try {
+          await _channel.invokeMethod(
+              'unwatch', <String, Object?>{'subscriptionId': subscriptionId});
+        } catch (e) {
+          print(e);
+        }
+      },
+    );
+    return controller.stream;
+  }
+
+  /// Progress of the running ICS imports and exports
+  Stream<IcsProgress> get icsProgress => _nativeEvents
+      .where((event) => event['type'] == 'icsProgress')
+      .map((event) => IcsProgress.fromJson(event));
+
+  /// Imports the events of the iCalendar file at [path] into the calendar.
+  /// The file is read incrementally, follow [icsProgress] for progress and
+  /// pass a [requestId] to be able to stop it with [cancel]
+  Future<IcsImportResult?> importIcs({
+    required String calendarId,
+    required String path,
+    String? requestId,
+  }) async {
+    IcsImportResult? importResult;
+    try {
+      Map<dynamic, dynamic> result =
+          await _channel.invokeMethod('importIcs', <String, Object?>{
+        'calendarId': calendarId,
+        'path': path,
+        'requestId': requestId,
+      });
+      importResult = IcsImportResult.fromJson(result);
+    } catch (e) {
+      print(e);
+    }
+    return importResult;
+  }
+
+  /// Exports the events of the calendars, optionally limited to the events
+  /// overlapping [startDate] - [endDate], as an iCalendar file at [path].
+  /// Returns the number of exported events
+  Future<int?> exportIcs({
+    required List<String> calendarIds,
+    required String path,
+    DateTime? startDate,
+    DateTime? endDate,
+    String? requestId,
+  }) async {
+    int? exported;
+    try {
+      exported = await _channel.invokeMethod('exportIcs', <String, Object?>{
+        'calendarIds': calendarIds,
+        'startDate': startDate?.millisecondsSinceEpoch,
+        'endDate': endDate?.millisecondsSinceEpoch,
+        'path': path,
+        'requestId': requestId,
+      });
+    } catch (e) {
+      print(e);
+    }
+    return exported;
+  }
+
   /// Find the first date of the month which contains the provided date.
   DateTime findFirstDateOfTheMonth(DateTime dateTime) {
     DateTime firstDayOfMonth = DateTime.utc(dateTime.year, dateTime.month, 1);
@@ -0,0 +1,25 @@
+part of manage_calendar_events;
+
+/// A reminder of one event occurrence, as returned by
+/// [CalendarPlugin.getUpcomingAlarms].
+class Alarm {
+  final String eventId;
+  final String? title;
+
+  /// Start and end of the occurrence the alarm is for
+  final DateTime begin;
+  final DateTime end;
+
+  /// Minutes before [begin] the alarm fires, before the local midnight of
+  /// the date for all-day events
+  final int minutes;
+  final DateTime alarmTime;
+
+  Alarm.fromJson(Map<String, dynamic> data)
+      : this.eventId = data['eventId'],
+        this.title = data['title'],
+        this.begin = DateTime.fromMillisecondsSinceEpoch(data['begin']),
+        this.end = DateTime.fromMillisecondsSinceEpoch(data['end']),
+        this.minutes = data['minutes'],
+        this.alarmTime = DateTime.fromMillisecondsSinceEpoch(data['alarmTime']);
+}
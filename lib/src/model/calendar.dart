@@ -6,6 +6,10 @@ class Calendar {
   String? accountName;
   String? ownerName;
   bool? isReadOnly;
+  int? color;
+  bool? isVisible;
+  bool? isSyncEnabled;
+  String? timeZone;
 
   Calendar({
     required this.id,
@@ -13,6 +17,10 @@ class Calendar {
     this.accountName,
     this.ownerName,
     this.isReadOnly,
+    this.color,
+    this.isVisible,
+    this.isSyncEnabled,
+    this.timeZone,
   });
 
   Calendar.fromJson(Map<String, dynamic> data) {
@@ -21,6 +29,10 @@ class Calendar {
     this.accountName = data["accountName"];
     this.ownerName = data["ownerName"];
     this.isReadOnly = data["isReadOnly"];
+    this.color = data["color"];
+    this.isVisible = data["isVisible"];
+    this.isSyncEnabled = data["isSyncEnabled"];
+    this.timeZone = data["timeZone"];
   }
 
   Map<String, dynamic> toJson() {
@@ -30,6 +42,10 @@ class Calendar {
     data["accountName"] = this.accountName;
     data["ownerName"] = this.ownerName;
     data["isReadOnly"] = this.isReadOnly;
+    data["color"] = this.color;
+    data["isVisible"] = this.isVisible;
+    data["isSyncEnabled"] = this.isSyncEnabled;
+    data["timeZone"] = this.timeZone;
     return data;
   }
 }
@@ -0,0 +1,34 @@
+part of manage_calendar_events;
+
+/// Changes to a window watched with [CalendarPlugin.watch].
+class CalendarChanges {
+  final String subscriptionId;
+
+  /// Events which were added or changed
+  final List<CalendarEvent> changed;
+
+  /// Occurrences which are no longer in the window
+  final List<RemovedOccurrence> removed;
+
+  CalendarChanges.fromJson(Map<dynamic, dynamic> data)
+      : this.subscriptionId = data['subscriptionId'],
+        this.changed = json
+            .decode(data['changed'])
+            .map<CalendarEvent>((decoded) => CalendarEvent.fromJson(decoded))
+            .toList(),
+        this.removed = (data['removed'] as List<dynamic>)
+            .map<RemovedOccurrence>((decoded) =>
+                RemovedOccurrence.fromJson(decoded as Map<dynamic, dynamic>))
+            .toList();
+}
+
+/// An occurrence removed from a watched window, recurring events are
+/// identified by their start date.
+class RemovedOccurrence {
+  final String eventId;
+  final DateTime startDate;
+
+  RemovedOccurrence.fromJson(Map<dynamic, dynamic> data)
+      : this.eventId = data['eventId'],
+        this.startDate = DateTime.fromMillisecondsSinceEpoch(data['startDate']);
+}
@@ -14,6 +14,10 @@ class CalendarEvent {
   Reminder? reminder;
   Attendees? attendees;
 
+  /// True when the [reminder] and [attendees] couldn't be loaded in time, they
+  /// are then unknown rather than missing.
+  bool enrichmentIncomplete = false;
+
   CalendarEvent({
     this.eventId,
     this.title = '',
@@ -51,6 +55,7 @@ class CalendarEvent {
     if (data['attendees'] != null && (data['attendees'] as List).isNotEmpty) {
       this.attendees = Attendees.fromJson(data['attendees']);
     }
+    this.enrichmentIncomplete = data['enrichmentIncomplete'] ?? false;
   }
 
   setReminder(Reminder reminder) {
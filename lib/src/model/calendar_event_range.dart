@@ -0,0 +1,115 @@
+part of manage_calendar_events;
+
+/// Occurrences of one recurring event inside a queried window. The [event]
+/// payload is shared by every occurrence, only the times differ.
+class EventSeries {
+  final CalendarEvent event;
+  final List<int> begins;
+  final List<int> ends;
+
+  EventSeries({
+    required this.event,
+    required this.begins,
+    required this.ends,
+  });
+
+  EventSeries.fromJson(Map<String, dynamic> data)
+      : this.event = CalendarEvent.fromJson(data['event']),
+        this.begins = List<int>.from(data['begins']),
+        this.ends = List<int>.from(data['ends']);
+
+  int get length => begins.length;
+
+  /// Materializes the occurrence at [index].
+  CalendarEvent occurrenceAt(int index) {
+    return CalendarEvent(
+      eventId: event.eventId,
+      title: event.title,
+      description: event.description,
+      startDate: DateTime.fromMillisecondsSinceEpoch(begins[index]),
+      endDate: DateTime.fromMillisecondsSinceEpoch(ends[index]),
+      location: event.location,
+      duration: event.duration,
+      isAllDay: event.isAllDay,
+      hasAlarm: event.hasAlarm,
+      url: event.url,
+      attendees: event.attendees,
+      reminder: event.reminder,
+    )..enrichmentIncomplete = event.enrichmentIncomplete;
+  }
+}
+
+/// Events of a queried window with recurring events kept as [EventSeries].
+class CalendarEventRange {
+  final List<CalendarEvent> events;
+  final List<EventSeries> series;
+
+  CalendarEventRange({required this.events, required this.series});
+
+  CalendarEventRange.fromJson(Map<String, dynamic> data)
+      : this.events = (data['events'] as List)
+            .map<CalendarEvent>((event) => CalendarEvent.fromJson(event))
+            .toList(),
+        this.series = (data['series'] as List)
+            .map<EventSeries>((series) => EventSeries.fromJson(series))
+            .toList();
+
+  /// Expands every series into individual occurrences, ordered by start
+  /// date, up to [limit] events. [events] and the occurrences of each series
+  /// are already sorted, so they are merged through a heap of their heads
+  /// rather than sorted again, as the Android side does.
+  List<CalendarEvent> expand({int? limit}) {
+    List<CalendarEvent> expanded = [];
+    PriorityQueue<_Head> heads = PriorityQueue<_Head>(_Head.compare);
+    if (events.isNotEmpty) {
+      heads.add(_Head(-1, _startOf(events[0])));
+    }
+    for (int s = 0; s < series.length; s++) {
+      if (series[s].length > 0) {
+        heads.add(_Head(s, series[s].begins[0]));
+      }
+    }
+
+    while ((limit == null || expanded.length < limit) && heads.isNotEmpty) {
+      _Head head = heads.removeFirst();
+      int remaining;
+      if (head.source < 0) {
+        expanded.add(events[head.index++]);
+        remaining = events.length - head.index;
+        if (remaining > 0) {
+          head.begin = _startOf(events[head.index]);
+        }
+      } else {
+        EventSeries eventSeries = series[head.source];
+        expanded.add(eventSeries.occurrenceAt(head.index++));
+        remaining = eventSeries.length - head.index;
+        if (remaining > 0) {
+          head.begin = eventSeries.begins[head.index];
+        }
+      }
+      if (remaining > 0) {
+        heads.add(head);
+      }
+    }
+    return expanded;
+  }
+
+  static int _startOf(CalendarEvent event) =>
+      event.startDate?.millisecondsSinceEpoch ?? 0;
+}
+
+/// Next unmerged element of one sorted source: the one-off events (source -1)
+/// or a series.
+class _Head {
+  final int source;
+  int index = 0;
+  int begin;
+
+  _Head(this.source, this.begin);
+
+  /// Equal starts keep the order of the sources.
+  static int compare(_Head a, _Head b) {
+    int byBegin = a.begin.compareTo(b.begin);
+    return byBegin != 0 ? byBegin : a.source.compareTo(b.source);
+  }
+}
@@ -0,0 +1,9 @@
+part of manage_calendar_events;
+
+/// A window of time between [start] and [end].
+class DateRange {
+  final DateTime start;
+  final DateTime end;
+
+  DateRange({required this.start, required this.end});
+}
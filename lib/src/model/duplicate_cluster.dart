@@ -0,0 +1,28 @@
+part of manage_calendar_events;
+
+/// Occurrences found by [CalendarPlugin.findDuplicates] which share the same
+/// title, start, end, location and all-day flag.
+class DuplicateCluster {
+  final List<DuplicateOccurrence> occurrences;
+
+  DuplicateCluster.fromJson(List<dynamic> data)
+      : this.occurrences = data
+            .map<DuplicateOccurrence>((occurrence) =>
+                DuplicateOccurrence.fromJson(occurrence as Map<dynamic, dynamic>))
+            .toList();
+}
+
+class DuplicateOccurrence {
+  final String eventId;
+  final String calendarId;
+  final String? title;
+  final DateTime startDate;
+  final DateTime endDate;
+
+  DuplicateOccurrence.fromJson(Map<dynamic, dynamic> data)
+      : this.eventId = data['eventId'],
+        this.calendarId = data['calendarId'],
+        this.title = data['title'],
+        this.startDate = DateTime.fromMillisecondsSinceEpoch(data['startDate']),
+        this.endDate = DateTime.fromMillisecondsSinceEpoch(data['endDate']);
+}
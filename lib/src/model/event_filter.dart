@@ -0,0 +1,67 @@
+part of manage_calendar_events;
+
+/// Event status values, see [EventFilter.status]
+class EventStatus {
+  static const int tentative = 0;
+  static const int confirmed = 1;
+  static const int canceled = 2;
+}
+
+/// Response of the calendar owner to an invitation, see
+/// [EventFilter.selfAttendeeStatus]
+class AttendeeStatus {
+  static const int none = 0;
+  static const int accepted = 1;
+  static const int declined = 2;
+  static const int invited = 3;
+  static const int tentative = 4;
+}
+
+/// Event availability values, see [EventFilter.availability]
+class EventAvailability {
+  static const int busy = 0;
+  static const int free = 1;
+  static const int tentative = 2;
+}
+
+/// Restricts the events returned by a read. The filter is applied by the
+/// calendar provider itself, so excluded events are never loaded. Unset
+/// fields don't filter anything.
+class EventFilter {
+  /// Accepted [EventStatus] values. Events without a status count as confirmed
+  final List<int>? status;
+
+  /// Accepted [AttendeeStatus] values of the calendar owner
+  final List<int>? selfAttendeeStatus;
+
+  /// Accepted [EventAvailability] values. Events without one count as busy
+  final List<int>? availability;
+  final bool? isAllDay;
+  final bool? hasAlarm;
+
+  /// Case-insensitive prefix of the title
+  final String? titlePrefix;
+
+  /// Email address of the organizer
+  final String? organizer;
+
+  const EventFilter({
+    this.status,
+    this.selfAttendeeStatus,
+    this.availability,
+    this.isAllDay,
+    this.hasAlarm,
+    this.titlePrefix,
+    this.organizer,
+  });
+
+  Map<String, Object?> toJson() => <String, Object?>{
+        if (status != null) 'status': status,
+        if (selfAttendeeStatus != null) 'selfAttendeeStatus': selfAttendeeStatus,
+        if (availability != null) 'availability': availability,
+        if (isAllDay != null) 'isAllDay': isAllDay,
+        if (hasAlarm != null) 'hasAlarm': hasAlarm,
+        if (titlePrefix != null) 'titlePrefix': titlePrefix,
+        if (organizer != null) 'organizer': organizer,
+      };
+}
@@ -0,0 +1,31 @@
+part of manage_calendar_events;
+
+/// Progress of a running [CalendarPlugin.importIcs] or
+/// [CalendarPlugin.exportIcs] call.
+class IcsProgress {
+  /// Either `import` or `export`
+  final String operation;
+  final String path;
+  final String? requestId;
+
+  /// Number of events imported or exported so far
+  final int processed;
+
+  IcsProgress.fromJson(Map<dynamic, dynamic> data)
+      : this.operation = data['operation'],
+        this.path = data['path'],
+        this.requestId = data['requestId'],
+        this.processed = data['processed'];
+}
+
+/// Outcome of [CalendarPlugin.importIcs].
+class IcsImportResult {
+  final int imported;
+
+  /// Number of VEVENTs which could not be read
+  final int skipped;
+
+  IcsImportResult.fromJson(Map<dynamic, dynamic> data)
+      : this.imported = data['imported'],
+        this.skipped = data['skipped'];
+}
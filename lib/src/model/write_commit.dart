@@ -0,0 +1,12 @@
+part of manage_calendar_events;
+
+/// Outcome of writing an update queued with `deferred: true`, see
+/// [CalendarPlugin.updateEvent].
+class WriteCommit {
+  final String eventId;
+  final bool success;
+
+  WriteCommit.fromJson(Map<dynamic, dynamic> data)
+      : this.eventId = data['eventId'],
+        this.success = data['success'];
+}
@@ -0,0 +1,61 @@
+import 'package:flutter_test/flutter_test.dart';
+import 'package:manage_calendar_events/manage_calendar_events.dart';
+
+CalendarEvent event(String id, int start) {
+  return CalendarEvent(
+    eventId: id,
+    startDate: DateTime.fromMillisecondsSinceEpoch(start),
+    endDate: DateTime.fromMillisecondsSinceEpoch(start + 10),
+  );
+}
+
+EventSeries series(String id, List<int> begins) {
+  return EventSeries(
+    event: event(id, begins.isNotEmpty ? begins[0] : 0),
+    begins: begins,
+    ends: begins.map((begin) => begin + 10).toList(),
+  );
+}
+
+List<String> keys(List<CalendarEvent> events) {
+  return events
+      .map((event) =>
+          '${event.eventId}@${event.startDate!.millisecondsSinceEpoch}')
+      .toList();
+}
+
+CalendarEventRange range() {
+  return CalendarEventRange(
+    events: [event('a', 100), event('b', 300), event('c', 300)],
+    series: [
+      series('s', [50, 300, 500]),
+      series('t', [200, 300]),
+      series('empty', []),
+    ],
+  );
+}
+
+void main() {
+  test('expand merges in start order with ties in source order', () {
+    expect(keys(range().expand()), [
+      's@50',
+      'a@100',
+      't@200',
+      'b@300',
+      'c@300',
+      's@300',
+      't@300',
+      's@500',
+    ]);
+  });
+
+  test('expand stops at the limit', () {
+    expect(keys(range().expand(limit: 4)), ['s@50', 'a@100', 't@200', 'b@300']);
+    expect(range().expand(limit: 0), isEmpty);
+    expect(range().expand(limit: 100).length, 8);
+  });
+
+  test('expand of an empty range', () {
+    expect(CalendarEventRange(events: [], series: []).expand(), isEmpty);
+  });
+}